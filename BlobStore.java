@@ -0,0 +1,645 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.Set;
+import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.attribute.PosixFilePermission.OWNER_WRITE;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Content-addressed store for file contents. Every distinct file content is
+ * kept exactly once, under <gitletDir>/blobs/<SHA-256 of content>, no matter
+ * how many commits or branches refer to it.
+ *
+ * A blob is either loose, a plain copy of the content, or packed: a delta
+ * against an earlier revision of the same path, appended to <gitletDir>/pack
+ * and found through the index <gitletDir>/pack.idx. A packed blob is rebuilt
+ * by applying the deltas of its chain to the loose blob at its end; chains
+ * are at most pack.depth deltas long (set in <gitletDir>/config, 0 turns
+ * packing off). If the compression setting is 1 to 9, new loose blobs are
+ * Deflate-compressed at that level and named <hash>.z; they are inflated
+ * as they are streamed out, and copied between stores still compressed.
+ *
+ * Loose blobs are read-only, and checkout never writes into an existing
+ * file: it removes it and creates a new one. An uncompressed blob is
+ * checked out by FileChannel.transferTo, so the kernel copies it without
+ * it passing through the heap, or, if checkout.link is 1, by hard-linking
+ * it, so a branch switch only touches metadata. A hard-linked working file
+ * shares its blob's inode, so editing it in place is unsafe: its read-only
+ * permissions refuse such an edit, but once a user or editor makes it
+ * writable again, the edit changes the blob under its hash too. A blob
+ * still linked, or writable, is therefore hashed again before it is first
+ * read, and a blob changed that way is an IOException rather than content
+ * silently passed off as its hash's. An edit that writes a new file and
+ * renames it over the old one, as most editors do, simply unlinks it.
+ */
+public class BlobStore {
+    private static final int HASHFRIEND = 0xff;
+    /** Size of the windows files are mapped, hashed and compared in. */
+    private static final long WINDOW_SIZE = 1 << 24;
+    private static final int SHA_BYTES = 32;
+    private static final int INDEX_RECORD_SIZE = SHA_BYTES + 8;
+    private static final int DEFAULT_PACK_DEPTH = 10;
+    private static final String DEFLATED = ".z";
+    private static final int STREAM_BUFFER = 1 << 16;
+    private String gitletDir;
+    private String dirPath;
+    private HashMap<String, Long> packed;
+    /** Offsets of the pack records, in order, once packedRange needs them. */
+    private long[] offsets;
+    private Boolean link;
+    /** Hashes of linked loose blobs checked against their contents. */
+    private Set<String> verified;
+
+    /** Constructs a store for the gitlet directory gitletDir, e.g. ".gitlet". */
+    public BlobStore(String gitletDir) {
+        this.gitletDir = gitletDir;
+        this.dirPath = gitletDir + "/blobs/";
+        this.packed = null;
+        this.offsets = null;
+        this.link = null;
+        this.verified = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Stores the contents of the file at path in THIS, unless an identical
+     * blob is already present. Returns the hash of the contents.
+     */
+    public String put(Path path) throws IOException {
+        return put(path, null);
+    }
+
+    /**
+     * Stores the contents of the file at path in THIS, unless an identical
+     * blob is already present, as a delta against the blob base if that
+     * saves at least half the space and keeps the chain within pack.depth.
+     * base is the previous revision of the same path, or null. Returns the
+     * hash of the contents.
+     */
+    public String put(Path path, String base) throws IOException {
+        String hash = hash(path);
+        if (contains(hash)) {
+            return hash;
+        }
+        if (base != null && contains(base) && Files.size(path) <= WINDOW_SIZE
+                && depthOf(base) < setting(gitletDir, "pack.depth", DEFAULT_PACK_DEPTH)) {
+            byte[] target = Files.readAllBytes(path);
+            byte[] delta = Delta.create(read(base), target);
+            if (delta.length < target.length / 2) {
+                appendPacked(hash, base, delta);
+                return hash;
+            }
+        }
+        Files.createDirectories(Paths.get(dirPath));
+        Path tmp = Paths.get(dirPath + hash + ".tmp");
+        int level = setting(gitletDir, "compression", 0);
+        if (level <= 0) {
+            Files.copy(path, tmp, REPLACE_EXISTING);
+            Files.move(tmp, loose(hash).toPath(), ATOMIC_MOVE);
+            loose(hash).setWritable(false, false);
+            return hash;
+        }
+        Deflater deflater = new Deflater(Math.min(level, Deflater.BEST_COMPRESSION));
+        try (OutputStream out = new DeflaterOutputStream(Files.newOutputStream(tmp), deflater)) {
+            Files.copy(path, out);
+        } finally {
+            deflater.end();
+        }
+        Files.move(tmp, deflated(hash).toPath(), ATOMIC_MOVE);
+        deflated(hash).setWritable(false, false);
+        return hash;
+    }
+
+    /** Returns true if THIS holds a blob with the given hash. */
+    public boolean contains(String hash) {
+        if (hash == null) {
+            return false;
+        }
+        if (isWhole(hash)) {
+            return true;
+        }
+        try {
+            return packIndex().containsKey(hash);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the paths, relative to the gitlet directory, that the blob
+     * hash may be kept in loose, compressed or not.
+     */
+    public static String[] loosePaths(String hash) {
+        return new String[] {"blobs/" + hash, "blobs/" + hash + DEFLATED};
+    }
+
+    /**
+     * Returns the path, relative to the gitlet directory, of the file the
+     * blob hash is kept in, or null if it is not loose.
+     */
+    public String pathOf(String hash) {
+        if (loose(hash).exists()) {
+            return "blobs/" + hash;
+        }
+        return deflated(hash).exists() ? "blobs/" + hash + DEFLATED : null;
+    }
+
+    /** Returns the File an uncompressed loose blob hash is kept in. */
+    private File loose(String hash) {
+        return new File(dirPath + hash);
+    }
+
+    /**
+     * Returns the File the uncompressed loose blob hash is kept in, after
+     * checking that its contents still have that hash if it may have been
+     * edited through a hard-linked working file.
+     */
+    private File checkedLoose(String hash) throws IOException {
+        File f = loose(hash);
+        if (!verified.contains(hash) && mayBeEdited(f.toPath())) {
+            if (!hash.equals(hash(f.toPath()))) {
+                throw new IOException("Blob " + hash + " was changed through a hard-linked"
+                        + " working file; commits holding it are damaged.");
+            }
+            verified.add(hash);
+        }
+        return f;
+    }
+
+    /**
+     * Returns true if the loose blob at path may have been edited through a
+     * hard link: another link to it remains, or it was made writable again.
+     * Where the file system cannot tell, returns true if checkouts are
+     * linked.
+     */
+    private boolean mayBeEdited(Path path) throws IOException {
+        try {
+            return ((Number) Files.getAttribute(path, "unix:nlink")).intValue() > 1
+                    || Files.getPosixFilePermissions(path).contains(OWNER_WRITE);
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return linksCheckouts();
+        }
+    }
+
+    /** Returns the File a compressed loose blob hash is kept in. */
+    private File deflated(String hash) {
+        return new File(dirPath + hash + DEFLATED);
+    }
+
+    /** Returns true if the blob hash is loose, compressed or not. */
+    private boolean isWhole(String hash) {
+        return loose(hash).exists() || deflated(hash).exists();
+    }
+
+    /** Returns a stream of the contents of the loose blob hash. */
+    private InputStream openWhole(String hash) throws IOException {
+        if (loose(hash).exists()) {
+            return new FileInputStream(checkedLoose(hash));
+        }
+        return new InflaterInputStream(new BufferedInputStream(
+                new FileInputStream(deflated(hash)), STREAM_BUFFER));
+    }
+
+    /**
+     * Returns the pack index, mapping the hash of each packed blob to the
+     * offset of its record in the pack. It is read the first time it is
+     * needed; a torn record at the end of the index is ignored.
+     */
+    private synchronized HashMap<String, Long> packIndex() throws IOException {
+        if (packed != null) {
+            return packed;
+        }
+        packed = new HashMap<String, Long>();
+        File index = new File(gitletDir + "/pack.idx");
+        if (!index.exists()) {
+            return packed;
+        }
+        byte[] sha = new byte[SHA_BYTES];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(index)))) {
+            for (long n = index.length() / INDEX_RECORD_SIZE; n > 0; n--) {
+                in.readFully(sha);
+                packed.put(toHex(sha), in.readLong());
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * Appends a pack record for the blob hash, stored as delta against base,
+     * then its index record, so an index entry never points past the pack.
+     * A record is the blob's hash, its base's hash, its chain depth and the
+     * delta, prefixed by its length.
+     */
+    private void appendPacked(String hash, String base, byte[] delta) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(fromHex(hash));
+        out.write(fromHex(base));
+        out.writeInt(depthOf(base) + 1);
+        out.writeInt(delta.length);
+        out.write(delta);
+        long offset;
+        try (FileChannel pack = FileChannel.open(Paths.get(gitletDir + "/pack"), CREATE, APPEND)) {
+            offset = pack.size();
+            pack.write(ByteBuffer.wrap(bytes.toByteArray()));
+        }
+        try (DataOutputStream index = new DataOutputStream(new FileOutputStream(
+                gitletDir + "/pack.idx", true))) {
+            index.write(fromHex(hash));
+            index.writeLong(offset);
+        }
+        packIndex().put(hash, offset);
+        offsets = null;
+    }
+
+    /** A delta read back from the pack. */
+    private static class PackRecord {
+        private String base;
+        private int depth;
+        private byte[] delta;
+    }
+
+    /** Reads the pack record at offset from pack. */
+    private static PackRecord readRecord(FileChannel pack, long offset) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(2 * SHA_BYTES + 8);
+        readFully(pack, head, offset);
+        head.flip();
+        head.position(SHA_BYTES);
+        byte[] base = new byte[SHA_BYTES];
+        head.get(base);
+        PackRecord r = new PackRecord();
+        r.base = toHex(base);
+        r.depth = head.getInt();
+        ByteBuffer delta = ByteBuffer.allocate(head.getInt());
+        readFully(pack, delta, offset + head.capacity());
+        r.delta = delta.array();
+        return r;
+    }
+
+    /** Fills buf from pack, starting at offset. */
+    private static void readFully(FileChannel pack, ByteBuffer buf, long offset)
+            throws IOException {
+        while (buf.hasRemaining()) {
+            if (pack.read(buf, offset + buf.position()) < 0) {
+                throw new EOFException("Truncated pack record.");
+            }
+        }
+    }
+
+    /** Returns the length of the delta chain of the blob hash; 0 if loose. */
+    private int depthOf(String hash) throws IOException {
+        Long offset = packIndex().get(hash);
+        if (offset == null) {
+            return 0;
+        }
+        try (FileChannel pack = FileChannel.open(Paths.get(gitletDir + "/pack"), READ)) {
+            return readRecord(pack, offset).depth;
+        }
+    }
+
+    /**
+     * Returns the offset of the pack record of the blob hash and its length,
+     * -1 if it is the last record and runs to the end of the pack, or null
+     * if the blob is not packed. Records are appended back to back, so each
+     * ends where the next begins.
+     */
+    public synchronized long[] packedRange(String hash) throws IOException {
+        Long offset = packIndex().get(hash);
+        if (offset == null) {
+            return null;
+        }
+        if (offsets == null) {
+            offsets = new long[packIndex().size()];
+            int i = 0;
+            for (long o : packIndex().values()) {
+                offsets[i++] = o;
+            }
+            Arrays.sort(offsets);
+        }
+        int i = Arrays.binarySearch(offsets, offset);
+        return new long[] {offset, (i + 1 < offsets.length) ? offsets[i + 1] - offset : -1};
+    }
+
+    /**
+     * Returns the hash of the blob the packed blob hash is stored as a delta
+     * against, or null if it is not packed.
+     */
+    public String baseOf(String hash) throws IOException {
+        Long offset = packIndex().get(hash);
+        if (offset == null) {
+            return null;
+        }
+        try (FileChannel pack = FileChannel.open(Paths.get(gitletDir + "/pack"), READ)) {
+            return readRecord(pack, offset).base;
+        }
+    }
+
+    /**
+     * Returns the contents of the blob hash. A packed blob is rebuilt by
+     * collecting the deltas of its chain, then applying them oldest first to
+     * the loose blob the chain ends at.
+     */
+    public byte[] read(String hash) throws IOException {
+        return read(hash, null);
+    }
+
+    /**
+     * Returns the contents of the blob hash, as read does, except that the
+     * delta chain of a packed blob also ends at a blob other holds, if other
+     * is not null, which is read from other.
+     */
+    private byte[] read(String hash, BlobStore other) throws IOException {
+        Stack<byte[]> deltas = new Stack<byte[]>();
+        String curr = hash;
+        if (!isWhole(curr)) {
+            try (FileChannel pack = FileChannel.open(Paths.get(gitletDir + "/pack"), READ)) {
+                while (!isWhole(curr) && (other == null || !other.contains(curr))) {
+                    Long offset = packIndex().get(curr);
+                    if (offset == null) {
+                        throw new IOException("Missing blob " + curr);
+                    }
+                    PackRecord record = readRecord(pack, offset);
+                    deltas.push(record.delta);
+                    curr = record.base;
+                }
+            }
+        }
+        byte[] contents;
+        if (!isWhole(curr)) {
+            contents = other.read(curr);
+        } else {
+            try (InputStream in = openWhole(curr)) {
+                contents = in.readAllBytes();
+            }
+        }
+        while (!deltas.empty()) {
+            contents = Delta.apply(contents, deltas.pop());
+        }
+        return contents;
+    }
+
+    /**
+     * Makes the file at target hold the contents of the blob hash, replacing
+     * whatever file was there, without ever writing into it. An uncompressed
+     * blob is hard-linked if checkout.link is 1 and the link can be made, and
+     * transferred otherwise; a compressed blob is inflated as it is streamed
+     * to target.
+     */
+    public void checkout(String hash, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        if (loose(hash).exists()) {
+            Path blob = checkedLoose(hash).toPath();
+            if (!linksCheckouts() || !link(blob, target)) {
+                transfer(blob, target);
+            }
+        } else if (deflated(hash).exists()) {
+            try (InputStream in = openWhole(hash)) {
+                Files.copy(in, target);
+            }
+        } else {
+            Files.write(target, read(hash), CREATE_NEW, WRITE);
+        }
+    }
+
+    /** Returns true if checkout.link is set to 1 for THIS's repository. */
+    private boolean linksCheckouts() {
+        if (link == null) {
+            link = setting(gitletDir, "checkout.link", 0) == 1;
+        }
+        return link;
+    }
+
+    /**
+     * Hard-links target to the blob at from, after making sure the blob is
+     * read-only. Returns false if the file system cannot link them, or if
+     * the blob would still be writable through the link, as it is to root.
+     */
+    private static boolean link(Path from, Path target) {
+        try {
+            from.toFile().setWritable(false, false);
+            if (Files.isWritable(from)) {
+                return false;
+            }
+            Files.createLink(target, from);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    /** Copies the file at from to the new file target with transferTo. */
+    private static void transfer(Path from, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(from, READ);
+                FileChannel out = FileChannel.open(target, CREATE_NEW, WRITE)) {
+            long size = in.size();
+            for (long pos = 0; pos < size;) {
+                pos += in.transferTo(pos, size - pos, out);
+            }
+        }
+    }
+
+    /** Returns true if the file at path holds the contents of the blob hash. */
+    public boolean matches(String hash, Path path) throws IOException {
+        if (loose(hash).exists()) {
+            return contentEquals(checkedLoose(hash).toPath(), path);
+        }
+        return hash.equals(hash(path));
+    }
+
+    /**
+     * Copies the blob with the given hash into other, if other lacks it. A
+     * compressed blob is copied as it is; a packed one arrives in other as
+     * an uncompressed loose blob, and its delta chain in THIS need only
+     * reach a blob other holds.
+     */
+    public void copyTo(String hash, BlobStore other) throws IOException {
+        if (!contains(hash) || other.contains(hash)) {
+            return;
+        }
+        Files.createDirectories(Paths.get(other.dirPath));
+        Path tmp = Paths.get(other.dirPath + hash + ".tmp");
+        File to;
+        if (deflated(hash).exists()) {
+            to = other.deflated(hash);
+            Files.copy(deflated(hash).toPath(), tmp, REPLACE_EXISTING);
+        } else if (loose(hash).exists()) {
+            to = other.loose(hash);
+            checkout(hash, tmp);
+        } else {
+            to = other.loose(hash);
+            Files.write(tmp, read(hash, other));
+        }
+        Files.move(tmp, to.toPath(), ATOMIC_MOVE);
+        to.setWritable(false, false);
+    }
+
+    /**
+     * Writes the blob hash to out as an entry of a push pack: its hash,
+     * whether it is compressed, and its loose file, prefixed by its length.
+     * A packed blob is written as the uncompressed loose blob it rebuilds to.
+     */
+    public void writeEntry(String hash, DataOutputStream out) throws IOException {
+        out.writeUTF(hash);
+        boolean compressed = deflated(hash).exists();
+        File f = compressed ? deflated(hash) : loose(hash);
+        out.writeBoolean(compressed);
+        if (f.exists()) {
+            out.writeLong(f.length());
+            Files.copy(f.toPath(), out);
+        } else {
+            byte[] contents = read(hash);
+            out.writeLong(contents.length);
+            out.write(contents);
+        }
+    }
+
+    /**
+     * Reads a push pack entry written by writeEntry from in, storing its
+     * blob loose in THIS unless THIS already holds it.
+     */
+    public void readEntry(DataInputStream in) throws IOException {
+        String hash = in.readUTF();
+        boolean compressed = in.readBoolean();
+        long length = in.readLong();
+        if (contains(hash)) {
+            in.skipNBytes(length);
+            return;
+        }
+        Files.createDirectories(Paths.get(dirPath));
+        Path tmp = Paths.get(dirPath + hash + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            byte[] buf = new byte[1 << 16];
+            for (long left = length; left > 0;) {
+                int n = in.read(buf, 0, (int) Math.min(buf.length, left));
+                if (n < 0) {
+                    throw new EOFException("Truncated blob " + hash);
+                }
+                out.write(buf, 0, n);
+                left -= n;
+            }
+        }
+        File to = compressed ? deflated(hash) : loose(hash);
+        Files.move(tmp, to.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+        to.setWritable(false, false);
+    }
+
+    /**
+     * Returns the integer setting key of the repository in gitletDir, read
+     * from <gitletDir>/config, or def if it is not set there.
+     */
+    public static int setting(String gitletDir, String key, int def) {
+        Properties config = new Properties();
+        File f = new File(gitletDir + "/config");
+        if (f.exists()) {
+            try (FileInputStream in = new FileInputStream(f)) {
+                config.load(in);
+            } catch (IOException e) {
+                return def;
+            }
+        }
+        try {
+            return Integer.parseInt(config.getProperty(key, String.valueOf(def)).trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    /**
+     * Returns the hex SHA-256 of the contents of the file at path. The file
+     * is memory-mapped one window at a time, so heap use does not depend on
+     * its size.
+     */
+    public static String hash(Path path) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (FileChannel in = FileChannel.open(path, READ)) {
+                long size = in.size();
+                for (long pos = 0; pos < size; pos += WINDOW_SIZE) {
+                    digest.update(in.map(READ_ONLY, pos, Math.min(WINDOW_SIZE, size - pos)));
+                }
+            }
+            return toHex(digest.digest());
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Returns true if the files at path1 and path2 have the same contents.
+     * Files of different sizes are told apart without reading them; otherwise
+     * both are memory-mapped window by window, stopping at the first window
+     * that differs.
+     */
+    public static boolean contentEquals(Path path1, Path path2) throws IOException {
+        try (FileChannel in1 = FileChannel.open(path1, READ);
+                FileChannel in2 = FileChannel.open(path2, READ)) {
+            long size = in1.size();
+            if (size != in2.size()) {
+                return false;
+            }
+            for (long pos = 0; pos < size; pos += WINDOW_SIZE) {
+                long length = Math.min(WINDOW_SIZE, size - pos);
+                MappedByteBuffer window1 = in1.map(READ_ONLY, pos, length);
+                MappedByteBuffer window2 = in2.map(READ_ONLY, pos, length);
+                if (!window1.equals(window2)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** Returns the bytes of the lowercase hex string hex. */
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    /** Returns the lowercase hex representation of hash. */
+    public static String toHex(byte[] hash) {
+        StringBuffer hexString = new StringBuffer();
+        for (int i = 0; i < hash.length; i++) {
+            String hex = Integer.toHexString(HASHFRIEND & hash[i]);
+            if (hex.length() == 1) {
+                hexString.append('0');
+            }
+            hexString.append(hex);
+        }
+        return hexString.toString();
+    }
+}
@@ -0,0 +1,208 @@
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * JUnit tests for BlobStore: which revisions it packs as deltas against the
+ * previous one, and that every blob reads back as it was put.
+ */
+public class BlobStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private String gitletDir;
+    private BlobStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        gitletDir = folder.newFolder(".gitlet").getPath();
+        store = new BlobStore(gitletDir);
+    }
+
+    /** Writes contents to a new file and returns its path. */
+    private Path file(byte[] contents) throws IOException {
+        Path path = folder.newFile().toPath();
+        Files.write(path, contents);
+        return path;
+    }
+
+    /** Writes the settings, such as "pack.depth=2", to the config file. */
+    private void config(String settings) throws IOException {
+        Files.write(new File(gitletDir, "config").toPath(), settings.getBytes(UTF_8));
+    }
+
+    /** Returns n lines of random text, the same for every seed. */
+    private static byte[] text(int n, long seed) {
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            text.append("line ").append(random.nextInt()).append('\n');
+        }
+        return text.toString().getBytes(UTF_8);
+    }
+
+    /** Returns contents with the byte at i changed. */
+    private static byte[] edit(byte[] contents, int i) {
+        byte[] edited = contents.clone();
+        edited[i] = (byte) (edited[i] == 'x' ? 'y' : 'x');
+        return edited;
+    }
+
+    /**
+     * Tests that a small edit is packed as a delta against the previous
+     * revision, and reads back through the pack index, from a new store too.
+     */
+    @Test
+    public void testRevisionPacked() throws IOException {
+        byte[] v1 = text(500, 1);
+        byte[] v2 = edit(v1, 100);
+        String base = store.put(file(v1), null);
+        String hash = store.put(file(v2), base);
+        assertNotNull(store.pathOf(base));
+        assertNull(store.pathOf(hash));
+        assertEquals(base, store.baseOf(hash));
+        assertTrue(new File(gitletDir, "pack.idx").exists());
+        assertTrue(new File(gitletDir, "pack").length() < v2.length / 2);
+        assertArrayEquals(v2, store.read(hash));
+        BlobStore reopened = new BlobStore(gitletDir);
+        assertTrue(reopened.contains(hash));
+        assertArrayEquals(v2, reopened.read(hash));
+        assertEquals(hash, store.put(file(v2), base));
+    }
+
+    /** Tests that chains stop at pack.depth deltas, and that 0 turns packing off. */
+    @Test
+    public void testChainDepth() throws IOException {
+        config("pack.depth=2\n");
+        byte[] contents = text(500, 2);
+        String prev = store.put(file(contents), null);
+        String[] hashes = new String[5];
+        for (int i = 0; i < hashes.length; i++) {
+            contents = edit(contents, 50 * i);
+            hashes[i] = store.put(file(contents), prev);
+            prev = hashes[i];
+            assertArrayEquals(contents, store.read(hashes[i]));
+        }
+        assertNull(store.pathOf(hashes[0]));
+        assertNull(store.pathOf(hashes[1]));
+        assertNotNull(store.pathOf(hashes[2]));
+        assertNull(store.pathOf(hashes[3]));
+
+        config("pack.depth=0\n");
+        assertNotNull(store.pathOf(store.put(file(edit(contents, 7)), prev)));
+    }
+
+    /**
+     * Tests that a revision is kept loose when its delta would not save half
+     * its size, or when it is larger than the 16MB delta limit.
+     */
+    @Test
+    public void testLooseWhenDeltaDoesNotPay() throws IOException {
+        String base = store.put(file(text(500, 3)), null);
+        String unrelated = store.put(file(text(500, 4)), base);
+        assertNotNull(store.pathOf(unrelated));
+        assertNull(store.baseOf(unrelated));
+
+        byte[] big = new byte[(1 << 24) + 1];
+        String bigBase = store.put(file(big), null);
+        byte[] bigEdit = edit(big, 1000);
+        String bigHash = store.put(file(bigEdit), bigBase);
+        assertNotNull(store.pathOf(bigHash));
+        assertArrayEquals(bigEdit, store.read(bigHash));
+    }
+
+    /** Tests that the pack records of consecutive revisions lie back to back. */
+    @Test
+    public void testPackedRange() throws IOException {
+        byte[] contents = text(500, 5);
+        String prev = store.put(file(contents), null);
+        assertNull(store.packedRange(prev));
+        String first = store.put(file(edit(contents, 1)), prev);
+        String second = store.put(file(edit(edit(contents, 1), 2)), first);
+        long[] range = store.packedRange(first);
+        assertEquals(0, range[0]);
+        assertEquals(range[1], store.packedRange(second)[0]);
+        assertEquals(-1, store.packedRange(second)[1]);
+    }
+
+    /**
+     * Tests that blobs stored with a compression level set in the config are
+     * kept compressed and read back as they were put, as are blobs stored
+     * before the level changed, and that a copy to another store stays
+     * compressed.
+     */
+    @Test
+    public void testCompressionRoundTrip() throws IOException {
+        byte[] plain = text(500, 6);
+        String plainHash = store.put(file(plain), null);
+        config("compression=6\n");
+        byte[] contents = text(2000, 7);
+        String hash = store.put(file(contents), null);
+        assertEquals("blobs/" + hash + ".z", store.pathOf(hash));
+        assertTrue(new File(gitletDir, store.pathOf(hash)).length() < contents.length / 2);
+        assertArrayEquals(contents, store.read(hash));
+        assertArrayEquals(plain, store.read(plainHash));
+        Path target = folder.getRoot().toPath().resolve("checked-out");
+        store.checkout(hash, target);
+        assertArrayEquals(contents, Files.readAllBytes(target));
+        assertTrue(store.matches(hash, target));
+
+        String edited = store.put(file(edit(contents, 10)), hash);
+        assertEquals(hash, store.baseOf(edited));
+        assertArrayEquals(edit(contents, 10), store.read(edited));
+
+        config("compression=0\n");
+        assertArrayEquals(contents, new BlobStore(gitletDir).read(hash));
+        BlobStore other = new BlobStore(folder.newFolder("other").getPath());
+        store.copyTo(hash, other);
+        assertEquals("blobs/" + hash + ".z", other.pathOf(hash));
+        assertArrayEquals(contents, other.read(hash));
+    }
+
+    /**
+     * Tests that checkout with checkout.link set to 1 gives the blob's
+     * contents, hard-linked where the file system allows it, and that an
+     * edit made in place through a link is an error on the next read rather
+     * than content passed off under the blob's hash.
+     */
+    @Test
+    public void testLinkedCheckout() throws IOException {
+        config("checkout.link=1\n");
+        byte[] contents = text(500, 8);
+        String hash = store.put(file(contents), null);
+        Path target = folder.getRoot().toPath().resolve("checked-out");
+        store.checkout(hash, target);
+        store.checkout(hash, target);
+        assertArrayEquals(contents, Files.readAllBytes(target));
+        assertTrue(store.matches(hash, target));
+        boolean linked = Files.isSameFile(target, new File(gitletDir, store.pathOf(hash)).toPath());
+
+        target.toFile().setWritable(true);
+        Files.write(target, "edited in place".getBytes(UTF_8));
+        BlobStore reopened = new BlobStore(gitletDir);
+        if (linked) {
+            try {
+                reopened.read(hash);
+                fail("Read a blob changed through a hard link.");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains(hash));
+            }
+        } else {
+            assertArrayEquals(contents, reopened.read(hash));
+        }
+    }
+}
@@ -0,0 +1,240 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Compact commit graph of a repository, kept in <gitletDir>/commit-graph.
+ * Every saved commit gets an integer position, the index of its record in
+ * the file. A record holds the position of the commit's parent (-1 for an
+ * initial commit or a shallow boundary), its generation number and its
+ * SHA, in RECORD_SIZE bytes, so ancestry can be answered by walking ints in
+ * one mapped file instead of reading commits.
+ *
+ * <gitletDir>/commit-graph.idx holds the SHAs of the first records of the
+ * graph, sorted, after their count, so an abbreviated SHA is resolved by
+ * binary search. Records appended since are searched one by one; once there
+ * are more than TAIL_LIMIT of them, the sorted index is rebuilt.
+ */
+public class CommitGraph {
+    private static final int SHA_BYTES = 32;
+    private static final int RECORD_SIZE = 8 + SHA_BYTES;
+    private static final int TAIL_LIMIT = 1024;
+    private String path;
+    private MappedByteBuffer map;
+    private MappedByteBuffer sorted;
+
+    /** Constructs the graph of the gitlet directory gitletDir, e.g. ".gitlet". */
+    public CommitGraph(String gitletDir) {
+        path = gitletDir + "/commit-graph";
+        map = null;
+        sorted = null;
+    }
+
+    /**
+     * Appends a record for the commit with the given SHA, parent position and
+     * generation number. Returns the position of the new record. A torn
+     * record at the end of the file, left by an interrupted save, is
+     * overwritten. So is the record of sha, if a save interrupted before it
+     * wrote the commit file left one, and its position is returned instead.
+     */
+    public int append(String sha, int parentPos, int generation) throws IOException {
+        int old = positionOf(sha);
+        if (old >= 0) {
+            setParent(old, parentPos);
+            return old;
+        }
+        try (RandomAccessFile f = new RandomAccessFile(path, "rw")) {
+            int pos = (int) (f.length() / RECORD_SIZE);
+            f.seek((long) pos * RECORD_SIZE);
+            f.writeInt(parentPos);
+            f.writeInt(generation);
+            for (int i = 0; i < SHA_BYTES; i++) {
+                f.writeByte(Integer.parseInt(sha.substring(2 * i, 2 * i + 2), 16));
+            }
+            f.setLength((long) (pos + 1) * RECORD_SIZE);
+            return pos;
+        }
+    }
+
+    /** Returns the offset in the graph file of the record at pos. */
+    public static long offsetOf(int pos) {
+        return (long) pos * RECORD_SIZE;
+    }
+
+    /** Maps the graph file, again if pos lies beyond what was mapped. */
+    private void mapTo(int pos) throws IOException {
+        if (map != null && (long) (pos + 1) * RECORD_SIZE <= map.capacity()) {
+            return;
+        }
+        try (RandomAccessFile f = new RandomAccessFile(new File(path), "r")) {
+            FileChannel channel = f.getChannel();
+            map = channel.map(READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /** Returns the number of records in the graph. */
+    public int size() {
+        return (int) (new File(path).length() / RECORD_SIZE);
+    }
+
+    /** Returns the SHA of the commit at pos. */
+    public String shaAt(int pos) throws IOException {
+        mapTo(pos);
+        byte[] sha = new byte[SHA_BYTES];
+        for (int i = 0; i < SHA_BYTES; i++) {
+            sha[i] = map.get(pos * RECORD_SIZE + 8 + i);
+        }
+        return BlobStore.toHex(sha);
+    }
+
+    /** Returns the position of the commit with the given SHA, or -1 if it has none. */
+    public int positionOf(String sha) throws IOException {
+        if (matching(sha, 1).isEmpty()) {
+            return -1;
+        }
+        for (int pos = size() - 1; pos >= 0; pos--) {
+            if (shaAt(pos).equals(sha)) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /** Maps the sorted index, if there is one, and returns how many SHAs it holds. */
+    private int mapSorted() throws IOException {
+        if (sorted == null) {
+            File f = new File(path + ".idx");
+            if (!f.exists()) {
+                return 0;
+            }
+            try (RandomAccessFile in = new RandomAccessFile(f, "r")) {
+                FileChannel channel = in.getChannel();
+                sorted = channel.map(READ_ONLY, 0, channel.size());
+            }
+        }
+        return sorted.getInt(0);
+    }
+
+    /** Returns the i-th SHA of the sorted index. */
+    private String sortedAt(int i) {
+        byte[] sha = new byte[SHA_BYTES];
+        for (int j = 0; j < SHA_BYTES; j++) {
+            sha[j] = sorted.get(4 + i * SHA_BYTES + j);
+        }
+        return BlobStore.toHex(sha);
+    }
+
+    /**
+     * Returns the SHAs of the commits in the graph starting with prefix, at
+     * most limit of them. The sorted index is binary searched for the first
+     * SHA not below prefix, and read on from there while SHAs match; then
+     * the records not indexed yet are checked.
+     */
+    public ArrayList<String> matching(String prefix, int limit) throws IOException {
+        ArrayList<String> found = new ArrayList<String>();
+        int indexed = mapSorted();
+        int lo = 0, hi = indexed;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sortedAt(mid).compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < indexed && found.size() < limit; i++) {
+            String sha = sortedAt(i);
+            if (!sha.startsWith(prefix)) {
+                break;
+            }
+            found.add(sha);
+        }
+        for (int pos = indexed; pos < size() && found.size() < limit; pos++) {
+            String sha = shaAt(pos);
+            if (sha.startsWith(prefix)) {
+                found.add(sha);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Rebuilds the sorted index over the whole graph if more than TAIL_LIMIT
+     * records were appended since it was last built.
+     */
+    public void reindex() throws IOException {
+        int total = size();
+        if (total - mapSorted() <= TAIL_LIMIT) {
+            return;
+        }
+        ArrayList<String> shas = new ArrayList<String>(total);
+        for (int pos = 0; pos < total; pos++) {
+            shas.add(shaAt(pos));
+        }
+        Collections.sort(shas);
+        File tmp = new File(path + ".idx.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)))) {
+            out.writeInt(total);
+            for (String sha : shas) {
+                for (int i = 0; i < SHA_BYTES; i++) {
+                    out.writeByte(Integer.parseInt(sha.substring(2 * i, 2 * i + 2), 16));
+                }
+            }
+        }
+        Files.move(tmp.toPath(), Paths.get(path + ".idx"), REPLACE_EXISTING, ATOMIC_MOVE);
+        sorted = null;
+    }
+
+    /** Returns the position of the parent of the commit at pos, or -1. */
+    public int parentOf(int pos) throws IOException {
+        mapTo(pos);
+        return map.getInt(pos * RECORD_SIZE);
+    }
+
+    /**
+     * Makes the commit at parentPos the parent of the commit at pos, which
+     * had none in the graph since its parent was not saved yet.
+     */
+    public void setParent(int pos, int parentPos) throws IOException {
+        try (RandomAccessFile f = new RandomAccessFile(path, "rw")) {
+            f.seek((long) pos * RECORD_SIZE);
+            f.writeInt(parentPos);
+        }
+        map = null;
+    }
+
+    /** Returns the generation number of the commit at pos. */
+    public int generationOf(int pos) throws IOException {
+        mapTo(pos);
+        return map.getInt(pos * RECORD_SIZE + 4);
+    }
+
+    /**
+     * Returns true if the commit at ancestor is a strict ancestor of the
+     * commit at pos. Walks parent positions from pos, but never past the
+     * generation of ancestor, so the walk is bounded by the difference in
+     * generation numbers.
+     */
+    public boolean isAncestor(int ancestor, int pos) throws IOException {
+        int target = generationOf(ancestor);
+        int curr = parentOf(pos);
+        while (curr >= 0 && generationOf(curr) > target) {
+            curr = parentOf(curr);
+        }
+        return curr == ancestor;
+    }
+}
@@ -1,6 +1,5 @@
-import java.io.File;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.nio.file.Paths;
@@ -8,30 +7,34 @@ import java.util.Date;
 import java.text.SimpleDateFormat;
 import java.security.MessageDigest;
 import java.util.HashSet;
-import java.util.HashMap;
+import java.util.Set;
 import java.io.Serializable;
 
-import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class CommitNode implements Serializable {
     private static final long serialVersionUID = 1L;
-    private static final int HASHFRIEND = 0xff;
+    /**
+     * Every commit whose generation is one more than a multiple of this is
+     * written with its full file map; the others only with what changed
+     * since their parent, so reading one reads at most this many commits.
+     */
+    public static final int FULL_MAP_INTERVAL = 32;
     private static int commitCount;
     private int commitID;
+    private int generation;
     private String sha;
-    private String base;
     private String commitMessage;
     private String branchName;
     private Date d;
     private String dateFormatted;
+    private String prevSHA;
     private CommitNode prev;
+    private CommitStore store;
     private CommitNode replay;
-    private HashMap<String, CommitNode> nextNodes;
-    private HashSet<String> oldFiles;
     private HashSet<String> newFiles;
-    private HashSet<String> allFiles;
     private HashSet<String> rmFiles;
-    private HashMap<String, CommitNode> fileLastCommitted;
+    private transient PathMap blobs;
     private boolean isReplay, isSkip;
 
     /**
@@ -46,7 +49,8 @@ public class CommitNode implements Serializable {
         this.commitID = commitCount;
         commitCount += 1;
         prev = p;
-        nextNodes = new HashMap<String, CommitNode>();
+        prevSHA = (p == null) ? "" : p.getSHA();
+        generation = (p == null) ? 1 : p.getGeneration() + 1;
         replay = replayNode;
         isReplay = (replay != null);
         branchName = branch;
@@ -54,34 +58,17 @@ public class CommitNode implements Serializable {
         SimpleDateFormat A = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
         d = new Date();
         dateFormatted = A.format(d);
-        oldFiles = new HashSet<String>();
         newFiles = staged;
         rmFiles = removed;
-        allFiles = new HashSet<String>(newFiles);
-        this.sha = makeSHA();
-        fileLastCommitted = new HashMap<String, CommitNode>();
-        if (p != null) {
-            HashMap<String, CommitNode> prevMap = p.getFileMap();
-            for (String a : prevMap.keySet()) {
-                if (!rmFiles.contains(a)) {
-                    this.fileLastCommitted.put(a, prevMap.get(a));
-                }
-            }
-            p.nextNodes.put(branch, this);
-            p.addNext(branch, this);
-        }
-        for (String s : newFiles) {
-            if (!isReplay && replayNode == null) {
-                fileLastCommitted.put(s, this);
-            } else {
-                fileLastCommitted.put(s, replayNode);
+        blobs = (p == null) ? PathMap.empty() : p.getFileMap();
+        if (isReplay) {
+            for (String s : newFiles) {
+                blobs = blobs.put(s, replayNode.blobOf(s));
             }
         }
         for (String r : rmFiles) {
-            fileLastCommitted.remove(r);
-            allFiles.remove(r);
+            blobs = blobs.remove(r);
         }
-        retrieveOldFiles();
         try {
             if (!isReplay) {
                 makeFolder(isRemote);
@@ -89,6 +76,136 @@ public class CommitNode implements Serializable {
         } catch (IOException ioe) {
             System.out.println("Couldn't make folder: " + ioe);
         }
+        this.sha = makeSHA();
+    }
+
+    /** Constructor used by read, which fills in every field itself. */
+    private CommitNode() {
+    }
+
+    /**
+     * Writes THIS to out. The header (everything log needs) comes first, so
+     * that read can stop after it. The file map follows: in full for an
+     * initial commit and every FULL_MAP_INTERVAL generations, otherwise just
+     * the entries set or removed relative to the parent.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        write(out, prevSHA.equals("") || generation % FULL_MAP_INTERVAL == 1);
+    }
+
+    /**
+     * Writes THIS to out as write does, but with the full file map if full,
+     * as a commit whose parent is not saved alongside it needs.
+     */
+    public void write(DataOutputStream out, boolean full) throws IOException {
+        out.writeUTF(sha);
+        out.writeUTF(prevSHA);
+        out.writeUTF(branchName);
+        out.writeUTF(commitMessage);
+        out.writeLong(d.getTime());
+        out.writeInt(commitID);
+        out.writeInt(generation);
+        out.writeBoolean(isReplay);
+        out.writeBoolean(isSkip);
+        out.writeInt(newFiles.size());
+        for (String filename : newFiles) {
+            out.writeUTF(filename);
+        }
+        out.writeInt(rmFiles.size());
+        for (String filename : rmFiles) {
+            out.writeUTF(filename);
+        }
+        out.writeBoolean(full);
+        if (full) {
+            out.writeInt(blobs.size());
+            for (String filename : blobs.keySet()) {
+                out.writeUTF(filename);
+                out.writeUTF(blobs.get(filename));
+            }
+            return;
+        }
+        HashSet<String> changed = new HashSet<String>(newFiles);
+        changed.addAll(rmFiles);
+        out.writeInt(changed.size());
+        for (String filename : changed) {
+            out.writeUTF(filename);
+            out.writeUTF(blobs.containsKey(filename) ? blobs.get(filename) : "");
+        }
+    }
+
+    /**
+     * Reads a commit written by write. Its parent is only read from store
+     * once it is asked for, or when THIS's file map is stored as changes to
+     * the parent's, which it then shares. If withFiles is false, only the
+     * header is read, which is enough for printInfo but nothing that looks
+     * at files.
+     */
+    public static CommitNode read(DataInputStream in, CommitStore store, boolean withFiles)
+            throws IOException {
+        CommitNode c = new CommitNode();
+        c.store = store;
+        c.sha = in.readUTF();
+        c.prevSHA = in.readUTF();
+        c.branchName = in.readUTF();
+        c.commitMessage = in.readUTF();
+        c.d = new Date(in.readLong());
+        c.dateFormatted = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(c.d);
+        c.commitID = in.readInt();
+        c.generation = in.readInt();
+        c.isReplay = in.readBoolean();
+        c.isSkip = in.readBoolean();
+        if (!withFiles) {
+            return c;
+        }
+        c.newFiles = new HashSet<String>();
+        c.rmFiles = new HashSet<String>();
+        for (int i = in.readInt(); i > 0; i--) {
+            c.newFiles.add(in.readUTF());
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            c.rmFiles.add(in.readUTF());
+        }
+        if (in.readBoolean()) {
+            c.blobs = PathMap.empty();
+        } else {
+            CommitNode p = c.getParent();
+            if (p == null) {
+                throw new IOException("Missing parent of commit " + c.sha);
+            }
+            c.blobs = p.getFileMap();
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            String filename = in.readUTF();
+            String hash = in.readUTF();
+            c.blobs = hash.equals("") ? c.blobs.remove(filename) : c.blobs.put(filename, hash);
+        }
+        return c;
+    }
+
+    /**
+     * Reads, from a commit written by write whose header was already read,
+     * the hashes of the blobs of its new files. Unlike read, this does not
+     * need the commit's parent, so it works on a commit whose parent has not
+     * been fetched yet.
+     */
+    public static HashSet<String> readNewBlobs(DataInputStream in) throws IOException {
+        HashSet<String> newFiles = new HashSet<String>();
+        for (int i = in.readInt(); i > 0; i--) {
+            newFiles.add(in.readUTF());
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            in.readUTF();
+        }
+        in.readBoolean();
+        HashSet<String> hashes = new HashSet<String>();
+        for (int i = in.readInt(); i > 0; i--) {
+            String filename = in.readUTF();
+            String hash = in.readUTF();
+            if (newFiles.contains(filename) && !hash.equals("")) {
+                hashes.add(hash);
+            }
+        }
+        return hashes;
     }
 
     /** Static initializer to initialize commitCount. */
@@ -96,121 +213,95 @@ public class CommitNode implements Serializable {
         commitCount = 0;
     }
 
-    /** Creates SHA string for THIS. */
+    /**
+     * Creates SHA string for THIS from its content alone: the tree hash of
+     * its files, its parent's SHA, its time and its message. The same commit
+     * made anywhere gets the same SHA, so repositories can tell which
+     * commits they already share.
+     */
     public String makeSHA() {
-        base = "";
-        sha = "";
-        String xs = String.valueOf(this.commitID);
-        int length = xs.length();
-        xs = "00000000" + xs;
-        xs = xs.substring(length, xs.length());
-        base = this.commitMessage + d.toString();
-        if (this.prev != null) {
-            base = base + this.prev.getSHA();
-        }
-        base = base + xs;
-        base = base + String.valueOf((int) (Math.random() * 1000));
         try {
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(base.getBytes("UTF-8"));
-            StringBuffer hexString = new StringBuffer();
-            for (int i = 0; i < hash.length; i++) {
-                String hex = Integer.toHexString(HASHFRIEND & hash[i]);
-                if (hex.length() == 1) {
-                    hexString.append('0');
-                }
-                hexString.append(hex);
-            }
-
-            return hexString.toString();
-        } catch (IOException | NoSuchAlgorithmException ex) {
+            digest.update(blobs.treeHash().getBytes(UTF_8));
+            digest.update((byte) 0);
+            digest.update(prevSHA.getBytes(UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(d.getTime()).getBytes(UTF_8));
+            digest.update((byte) 0);
+            digest.update(this.commitMessage.getBytes(UTF_8));
+            return BlobStore.toHex(digest.digest());
+        } catch (NoSuchAlgorithmException ex) {
             System.out.println(ex);
             return "";
         }
     }
 
+    /** Returns the time THIS was committed, in milliseconds. */
+    public long getTime() {
+        return d.getTime();
+    }
+
     /** Returns true if the CommitNode is to be skipped. */
     public boolean isToBeSkipped() {
         return isSkip;
     }
 
-    /** Returns true if THIS node is in the history of c. */
+    /**
+     * Returns true if THIS node is in the history of c. Asks the commit graph
+     * of c's store if c is saved; otherwise walks back from c, but no further
+     * than THIS's generation.
+     */
     public boolean isInHistory(CommitNode c) {
-        if (c.getPrev() == null) {
-            return false;
-        }
-        // System.out.println(this.getSHA() +" vs. "+ c.getPrev().getSHA());
-        if (this.equals(c.getPrev())) {
-            return true;
+        if (c.store != null) {
+            Boolean inGraph = c.store.isAncestor(this, c);
+            if (inGraph != null) {
+                return inGraph;
+            }
         }
-        return this.isInHistory(c.getPrev());
-    }
-
-    /** Returns FileLastCommitted HashMap. */
-    public HashMap<String, CommitNode> getFileMap() {
-        return this.fileLastCommitted;
-    }
-
-    /** Finds the child node in the given branch. */
-    public CommitNode next(String branchname) {
-        if (nextNodes.containsKey(branchname)) {
-            CommitNode t = nextNodes.get(branchname);
-            if (!t.isToBeSkipped()) {
-                return t;
-            } else {
-                return t.next(branchname);
+        for (CommitNode t = c.getPrev(); t != null && t.generation >= this.generation;
+                t = t.getPrev()) {
+            // System.out.println(this.getSHA() +" vs. "+ t.getSHA());
+            if (this.equals(t)) {
+                return true;
             }
-        } else {
-            return null;
         }
+        return false;
     }
 
-    /** Returns true if this commitNode has a next node in branchName. */
-    public boolean containsNextIn(String branchname) {
-        return this.next(branchname) != null;
+    /** Returns the commit store THIS was read from or added to, if any. */
+    public CommitStore getStore() {
+        return this.store;
     }
 
-    /** Adds c as a child of THIS, in branchname. */
-    public void addNext(String branchname, CommitNode c) {
-        this.nextNodes.put(branchname, c);
+    /** Sets the commit store THIS belongs to. */
+    public void setStore(CommitStore s) {
+        this.store = s;
     }
 
-    /** For testing purposes. */
-    public void printNext() {
-        System.out.println("Next nodes for ID: " + sha + " - "); // SHA
-        for (String branchname : nextNodes.keySet()) {
-            System.out.println("Branch: " + branchname + ", Node ID: "
-                    + nextNodes.get(branchname).getSHA()); // SHA
-        }
+    /**
+     * Returns the map from every file in this commit to its blob hash. It is
+     * immutable, and shares unchanged parts with the maps of related commits.
+     */
+    public PathMap getFileMap() {
+        return this.blobs;
     }
 
-    /** Makes folder with path .gitlet/<commitID>, storing all newFiles. */
+    /**
+     * Stores the contents of all newFiles from the working directory in the
+     * blob store of .gitlet (or remoteWD/.gitlet if isRemote), and records
+     * their hashes. Identical contents are only ever stored once, and a new
+     * revision may be stored as a delta against the one it replaces.
+     */
     public void makeFolder(boolean isRemote) throws IOException {
-        String dirPath = ".gitlet/" + this.getSHA() + "/";
-        if (isRemote) {
-            dirPath = "remoteWD/" + dirPath;
-        }
-        // System.out.println("dest: "+dirPath);
-        File f = new File(dirPath);
-        f.mkdir();
+        BlobStore store = new BlobStore(isRemote ? "remoteWD/.gitlet" : ".gitlet");
         for (String filename : newFiles) {
-            String to = dirPath + filename;
-            String from = filename;
-            Path fromPath = Paths.get(from);
-            Path toPath = Paths.get(to);
-            if (fromPath.getParent() != null) {
-                Files.createDirectories(fromPath.getParent());
-            }
-            if (toPath.getParent() != null) {
-                Files.createDirectories(toPath.getParent());
-            }
-            Files.copy(fromPath, toPath, REPLACE_EXISTING);
+            blobs = blobs.put(filename, store.put(Paths.get(filename), blobs.get(filename)));
         }
     }
 
-    /** Returns HashSet of all files in the commit. */
-    public HashSet<String> getAllFiles() {
-        return this.allFiles;
+    /** Returns a read-only Set of all files in the commit. */
+    public Set<String> getAllFiles() {
+        return this.blobs.keySet();
     }
 
     /** Returns HashSet of new files in the commit. */
@@ -223,9 +314,25 @@ public class CommitNode implements Serializable {
         return this.rmFiles;
     }
 
+    /**
+     * Returns the parent commitNode, even if it is to be skipped. The parent
+     * is read from the commit store the first time it is asked for.
+     */
+    public CommitNode getParent() {
+        if (this.prev == null && !this.prevSHA.equals("")) {
+            this.prev = store.get(this.prevSHA);
+        }
+        return this.prev;
+    }
+
+    /** Returns the SHA of the parent commit, or "" for an initial commit. */
+    public String getParentSHA() {
+        return this.prevSHA;
+    }
+
     /** Returns previous/parent commitNode. */
     public CommitNode getPrev() {
-        CommitNode t = this.prev;
+        CommitNode t = this.getParent();
         if (t != null) {
             if (!t.isToBeSkipped()) {
                 return t;
@@ -247,9 +354,13 @@ public class CommitNode implements Serializable {
         return this.commitID;
     }
 
-    /** Returns the base that was hashed into the String ID. */
-    public String getSHABase() {
-        return this.base;
+    /**
+     * Returns the generation number of this commit: 1 for an initial commit,
+     * one more than its parent's otherwise. An ancestor always has a lower
+     * generation number than its descendants.
+     */
+    public int getGeneration() {
+        return this.generation;
     }
 
     /** Returns the SHA hash for the given commit. */
@@ -257,40 +368,14 @@ public class CommitNode implements Serializable {
         return this.sha;
     }
 
-    /** Returns the commit ID (wrt THIS) where the file was most recently added. */
-    public CommitNode whereToFind(String filename) {
-        return fileLastCommitted.get(filename);
-    }
-
-    /* For file access. Returns true if .gitlet/<SHA ID> contains File <filename>. */
-    public boolean folderContainsFile(String filename) {
-        return newFiles.contains(filename) && !isReplay;
+    /** Returns the hash of the blob holding filename in THIS, or null. */
+    public String blobOf(String filename) {
+        return blobs.get(filename);
     }
 
     /** Returns true if this commit contains filename. */
     public boolean fileExists(String filename) {
-        return allFiles.contains(filename);
-    }
-
-    /** Returns File object as is in this commit. */
-    public File getFile(String filename) {
-        String from = "", reqSHA = "";
-        if (this.folderContainsFile(filename)) {
-            from = ".gitlet/" + sha + "/" + filename;
-            return new File(from);
-        } else {
-            if (this.whereToFind(filename) == null && replay == null) {
-                // System.out.println("Couldn't get file in commit ID " + sha);
-                return null;
-            } else {
-                if (this.whereToFind(filename) != null) {
-                    reqSHA = whereToFind(filename).getSHA();
-                }
-                /* if (replay != null) reqSHA = replay.getSHA(); */
-                from = ".gitlet/" + reqSHA + "/" + filename;
-                return new File(from);
-            }
-        }
+        return blobs.containsKey(filename);
     }
 
     /** Overrides equals to return if SHA IDs are equal. */
@@ -310,19 +395,6 @@ public class CommitNode implements Serializable {
         return this.sha.hashCode(); // SHA
     }
 
-    /** Retrieve old files from parent node. */
-    private void retrieveOldFiles() {
-        if (prev != null) {
-            HashSet<String> oldAll = prev.getAllFiles();
-            for (String filename : oldAll) {
-                if (!newFiles.contains(filename) && !rmFiles.contains(filename)) {
-                    oldFiles.add(filename);
-                    allFiles.add(filename);
-                }
-            }
-        }
-    }
-
     /** Prints info of THIS commit as is needed for log function. */
     public void printInfo() {
         System.out.println("====");
@@ -0,0 +1,97 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+/**
+ * JUnit tests for CommitNode.makeSHA: a commit's SHA follows from its files,
+ * parent, time and message, and from nothing else.
+ */
+public class CommitNodeTest {
+    private static final String PARENT = sha('a');
+    private static final long TIME = 1700000000000L;
+
+    /** Returns a SHA made of the char c. */
+    private static String sha(char c) {
+        return String.valueOf(c).repeat(64);
+    }
+
+    /**
+     * Returns the SHA makeSHA gives the commit with the given parent, time,
+     * message and files, as name and blob hash pairs, read back as it is
+     * written to disk. branch, id and generation are bookkeeping that must
+     * not count.
+     */
+    private static String shaOf(String parent, long time, String msg, String branch, int id,
+            int generation, String... files) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF("");
+        out.writeUTF(parent);
+        out.writeUTF(branch);
+        out.writeUTF(msg);
+        out.writeLong(time);
+        out.writeInt(id);
+        out.writeInt(generation);
+        out.writeBoolean(false);
+        out.writeBoolean(false);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeBoolean(true);
+        out.writeInt(files.length / 2);
+        for (int i = 0; i < files.length; i += 2) {
+            out.writeUTF(files[i]);
+            out.writeUTF(files[i + 1]);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        return CommitNode.read(in, null, true).makeSHA();
+    }
+
+    /** Returns the SHA of a commit of a.txt and b.txt with the given message. */
+    private static String shaOf(String msg) throws IOException {
+        return shaOf(PARENT, TIME, msg, "master", 1, 2, "a.txt", sha('1'), "b.txt", sha('2'));
+    }
+
+    /** Tests that commits with the same content get the same SHA wherever made. */
+    @Test
+    public void testSameContentSameSHA() throws IOException {
+        String expected = shaOf("msg");
+        assertEquals(64, expected.length());
+        assertEquals(expected, shaOf("msg"));
+        assertEquals(expected, shaOf(PARENT, TIME, "msg", "other", 7, 40,
+                "b.txt", sha('2'), "a.txt", sha('1')));
+    }
+
+    /** Tests that changing the files, parent, time or message changes the SHA. */
+    @Test
+    public void testContentChangesSHA() throws IOException {
+        HashSet<String> shas = new HashSet<String>();
+        shas.add(shaOf("msg"));
+        shas.add(shaOf("msg2"));
+        shas.add(shaOf(sha('b'), TIME, "msg", "master", 1, 2,
+                "a.txt", sha('1'), "b.txt", sha('2')));
+        shas.add(shaOf("", TIME, "msg", "master", 1, 2, "a.txt", sha('1'), "b.txt", sha('2')));
+        shas.add(shaOf(PARENT, TIME + 1, "msg", "master", 1, 2,
+                "a.txt", sha('1'), "b.txt", sha('2')));
+        shas.add(shaOf(PARENT, TIME, "msg", "master", 1, 2,
+                "a.txt", sha('1'), "b.txt", sha('3')));
+        shas.add(shaOf(PARENT, TIME, "msg", "master", 1, 2,
+                "a.txt", sha('1'), "c.txt", sha('2')));
+        shas.add(shaOf(PARENT, TIME, "msg", "master", 1, 2, "a.txt", sha('1')));
+        assertEquals(8, shas.size());
+    }
+
+    /** Tests that the fields makeSHA hashes are kept apart, not just joined. */
+    @Test
+    public void testFieldsDelimited() throws IOException {
+        assertNotEquals(shaOf(PARENT, 12, "3msg", "master", 1, 2),
+                shaOf(PARENT, 123, "msg", "master", 1, 2));
+    }
+}
@@ -0,0 +1,450 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Stack;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * On-disk index of commits, one file per commit at
+ * <gitletDir>/commits/<first 2 hex digits of SHA>/<remaining 62>. Commits
+ * are read on demand, the first time their SHA is asked for, and cached for
+ * the rest of the command; commits put in THIS are written out by save.
+ * Each commit file starts with the commit's position in the CommitGraph and
+ * whether the rest is Deflate-compressed, which it is when the repository's
+ * compression setting is above 0. A shallow clone holds only recent
+ * history; the commits it stops at are listed in <gitletDir>/shallow.
+ */
+public class CommitStore {
+    private static final int SHA_LENGTH = 64;
+    private static final String SHALLOW = "shallow";
+    private String gitletDir;
+    private String dirPath;
+    private HashMap<String, CommitNode> cache;
+    private LinkedHashMap<String, CommitNode> added;
+    private HashMap<String, Integer> positions;
+    private CommitGraph graph;
+    private MessageIndex messageIndex;
+    private HashSet<String> shallow;
+    private boolean shallowChanged;
+
+    /** Constructs the store of the gitlet directory gitletDir, e.g. ".gitlet". */
+    public CommitStore(String gitletDir) {
+        this.gitletDir = gitletDir;
+        dirPath = gitletDir + "/commits/";
+        cache = new HashMap<String, CommitNode>();
+        added = new LinkedHashMap<String, CommitNode>();
+        positions = new HashMap<String, Integer>();
+        graph = new CommitGraph(gitletDir);
+        messageIndex = new MessageIndex(gitletDir);
+    }
+
+    /** Returns true if sha is a well-formed commit SHA. */
+    private static boolean isSHA(String sha) {
+        return sha != null && sha.length() == SHA_LENGTH && sha.matches("[0-9a-f]+");
+    }
+
+    /**
+     * Returns the path of the file holding the commit with the given SHA,
+     * relative to the gitlet directory.
+     */
+    public static String pathOf(String sha) {
+        return "commits/" + sha.substring(0, 2) + "/" + sha.substring(2);
+    }
+
+    /** Returns the file holding the commit with the given SHA. */
+    private File fileOf(String sha) {
+        return new File(gitletDir + "/" + pathOf(sha));
+    }
+
+    /** Returns true if the commit with the given SHA is on disk. */
+    private boolean isSaved(String sha) {
+        return fileOf(sha).exists();
+    }
+
+    /** Returns true if THIS holds a commit with the given SHA. */
+    public boolean containsKey(String sha) {
+        return cache.containsKey(sha) || (isSHA(sha) && isSaved(sha));
+    }
+
+    /** Returns the commit with the given SHA, reading it if needed, or null. */
+    public CommitNode get(String sha) {
+        if (cache.containsKey(sha)) {
+            return cache.get(sha);
+        }
+        if (!isSHA(sha) || !isSaved(sha)) {
+            return null;
+        }
+        CommitNode c = read(sha, true);
+        if (c != null) {
+            cache.put(sha, c);
+        }
+        return c;
+    }
+
+    /**
+     * Returns the commit with the given SHA without its files, for printing
+     * its log entry. The result is not cached.
+     */
+    public CommitNode getHeader(String sha) {
+        if (cache.containsKey(sha)) {
+            return cache.get(sha);
+        }
+        return read(sha, false);
+    }
+
+    /** Reads the commit with the given SHA from disk, or returns null. */
+    private CommitNode read(String sha, boolean withFiles) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(fileOf(sha))))) {
+            positions.put(sha, in.readInt());
+            try (DataInputStream data = dataOf(in)) {
+                return CommitNode.read(data, this, withFiles);
+            }
+        } catch (IOException e) {
+            System.out.println("Could not read commit " + sha + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the commit data that follows the position in a commit file
+     * read from in, inflating it if it is compressed.
+     */
+    private static DataInputStream dataOf(DataInputStream in) throws IOException {
+        if (in.readBoolean()) {
+            return new DataInputStream(new BufferedInputStream(new InflaterInputStream(in)));
+        }
+        return in;
+    }
+
+    /**
+     * Returns the hashes of the blobs of the new files of the saved commit
+     * with the given SHA, read without reading its parent.
+     */
+    public HashSet<String> newBlobs(String sha) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(fileOf(sha))))) {
+            in.readInt();
+            try (DataInputStream data = dataOf(in)) {
+                CommitNode.read(data, this, false);
+                return CommitNode.readNewBlobs(data);
+            }
+        }
+    }
+
+    /**
+     * Returns the commit file of the saved commit with the given SHA, less
+     * the position it starts with, which is all another store needs to
+     * import it.
+     */
+    public byte[] rawData(String sha) throws IOException {
+        byte[] raw = Files.readAllBytes(fileOf(sha).toPath());
+        return Arrays.copyOfRange(raw, 4, raw.length);
+    }
+
+    /**
+     * Saves the commit with the given SHA, whose commit file less its
+     * position is data, unless it is saved already, adding it to the commit
+     * graph. Its parent, if THIS has it, must be saved first; the graph is
+     * searchable for it after finishImport.
+     */
+    public void importCommit(String sha, byte[] data) throws IOException {
+        if (isSaved(sha)) {
+            return;
+        }
+        CommitNode header;
+        try (DataInputStream in = dataOf(new DataInputStream(new ByteArrayInputStream(data)))) {
+            header = CommitNode.read(in, this, false);
+        }
+        Integer parentPos = null;
+        if (!header.getParentSHA().equals("")) {
+            parentPos = positionOf(header.getParentSHA());
+        }
+        int pos = graph.append(sha, (parentPos == null) ? -1 : parentPos,
+                header.getGeneration());
+        positions.put(sha, pos);
+        File f = fileOf(sha);
+        f.getParentFile().mkdirs();
+        File tmp = new File(f.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)))) {
+            out.writeInt(pos);
+            out.write(data);
+        }
+        Files.move(tmp.toPath(), f.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    /**
+     * Saves c, read with its files from another store, as a shallow boundary
+     * of THIS: a commit whose parent THIS lacks. It is written with its full
+     * file map, since the parent its changes would be relative to is not
+     * there, and gets no parent in the graph until finishImport finds its
+     * parent imported after all.
+     */
+    public void importBoundary(CommitNode c) throws IOException {
+        if (isSaved(c.getSHA())) {
+            return;
+        }
+        int pos = graph.append(c.getSHA(), -1, c.getGeneration());
+        positions.put(c.getSHA(), pos);
+        writeFile(c, pos, true, BlobStore.setting(gitletDir, "compression", 0));
+        shallow().add(c.getSHA());
+        shallowChanged = true;
+    }
+
+    /**
+     * Completes a series of imports: links every shallow boundary whose
+     * parent has been imported since to it in the commit graph, records the
+     * remaining boundaries in <gitletDir>/shallow, and rebuilds the graph's
+     * sorted index if it is due.
+     */
+    public void finishImport() throws IOException {
+        for (String sha : new ArrayList<String>(shallow())) {
+            Integer parentPos = positionOf(getHeader(sha).getParentSHA());
+            if (parentPos != null) {
+                graph.setParent(positionOf(sha), parentPos);
+                shallow.remove(sha);
+                shallowChanged = true;
+            }
+        }
+        if (shallowChanged) {
+            File f = new File(gitletDir + "/" + SHALLOW);
+            File tmp = new File(f.getPath() + ".tmp");
+            Files.write(tmp.toPath(), shallow);
+            Files.move(tmp.toPath(), f.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+            shallowChanged = false;
+        }
+        graph.reindex();
+    }
+
+    /**
+     * Returns the SHAs of the shallow boundaries of THIS, the commits whose
+     * history was left out when they were fetched, read from
+     * <gitletDir>/shallow. It is empty for a complete repository.
+     */
+    public HashSet<String> shallow() throws IOException {
+        if (shallow == null) {
+            shallow = new HashSet<String>();
+            File f = new File(gitletDir + "/" + SHALLOW);
+            if (f.exists()) {
+                shallow.addAll(Files.readAllLines(f.toPath()));
+            }
+        }
+        return shallow;
+    }
+
+    /** Adds c to THIS. It is written to disk by the next save. */
+    public void put(String sha, CommitNode c) {
+        if (c.getStore() == null) {
+            c.setStore(this);
+        }
+        cache.put(sha, c);
+        added.put(sha, c);
+    }
+
+    /**
+     * Returns the position in the commit graph of the saved commit with the
+     * given SHA, or null if it is not saved.
+     */
+    public Integer positionOf(String sha) throws IOException {
+        if (!positions.containsKey(sha)) {
+            if (!isSHA(sha) || !isSaved(sha)) {
+                return null;
+            }
+            try (DataInputStream in = new DataInputStream(new FileInputStream(fileOf(sha)))) {
+                positions.put(sha, in.readInt());
+            }
+        }
+        return positions.get(sha);
+    }
+
+    /** Returns the position of the parent of the commit at pos, or -1. */
+    public int parentOf(int pos) throws IOException {
+        return graph.parentOf(pos);
+    }
+
+    /** Returns the commits put in THIS that are not saved yet. */
+    public ArrayList<CommitNode> unsaved() {
+        ArrayList<CommitNode> result = new ArrayList<CommitNode>();
+        for (String sha : added.keySet()) {
+            if (!isSaved(sha)) {
+                result.add(added.get(sha));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether a is a strict ancestor of c, answered from the commit
+     * graph, or null if c is not saved in THIS yet.
+     */
+    public Boolean isAncestor(CommitNode a, CommitNode c) {
+        try {
+            Integer pos = positionOf(c.getSHA());
+            if (pos == null) {
+                return null;
+            }
+            Integer ancestor = positionOf(a.getSHA());
+            return ancestor != null && graph.isAncestor(ancestor, pos);
+        } catch (IOException e) {
+            System.out.println("Could not read commit graph: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes every commit put in THIS, or reachable from roots, that is not
+     * on disk yet, parents before children, adding each to the commit graph.
+     * Each commit is written to a temporary file first, so a commit file is
+     * either complete or absent.
+     */
+    public void save(Collection<CommitNode> roots) throws IOException {
+        int level = BlobStore.setting(gitletDir, "compression", 0);
+        ArrayList<CommitNode> pending = new ArrayList<CommitNode>(added.values());
+        pending.addAll(roots);
+        for (CommitNode root : pending) {
+            Stack<CommitNode> chain = new Stack<CommitNode>();
+            for (CommitNode c = root; c != null && !isSaved(c.getSHA()); c = c.getParent()) {
+                chain.push(c);
+            }
+            while (!chain.empty()) {
+                CommitNode c = chain.pop();
+                Integer parentPos = -1;
+                if (c.getParent() != null) {
+                    parentPos = positionOf(c.getParent().getSHA());
+                }
+                int pos = graph.append(c.getSHA(), parentPos, c.getGeneration());
+                positions.put(c.getSHA(), pos);
+                writeFile(c, pos, false, level);
+            }
+        }
+        added.clear();
+        graph.reindex();
+        messages().reindex();
+    }
+
+    /**
+     * Writes the commit file of c, at position pos, with its full file map
+     * if full and otherwise as CommitNode.write decides, compressed at the
+     * given level if it is above 0.
+     */
+    private void writeFile(CommitNode c, int pos, boolean full, int level) throws IOException {
+        File f = fileOf(c.getSHA());
+        f.getParentFile().mkdirs();
+        File tmp = new File(f.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)))) {
+            out.writeInt(pos);
+            out.writeBoolean(level > 0);
+            if (level > 0) {
+                writeDeflated(c, out, level, full);
+            } else if (full) {
+                c.write(out, true);
+            } else {
+                c.write(out);
+            }
+        }
+        Files.move(tmp.toPath(), f.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the message index, after adding an entry for every commit in
+     * the graph that has none yet: those saved since, or saved before the
+     * index existed. A skipped commit gets an empty message.
+     */
+    public MessageIndex messages() throws IOException {
+        for (int pos = messageIndex.size(); pos < graph.size(); pos++) {
+            String sha = graph.shaAt(pos);
+            CommitNode c = getHeader(sha);
+            if (c == null) {
+                throw new IOException("Missing commit " + sha);
+            }
+            messageIndex.add(sha, c.getTime(), c.isToBeSkipped() ? "" : c.getMsg());
+        }
+        return messageIndex;
+    }
+
+    /**
+     * Writes c to out, Deflate-compressed at the given level, with its full
+     * file map if full.
+     */
+    private static void writeDeflated(CommitNode c, OutputStream out, int level, boolean full)
+            throws IOException {
+        Deflater deflater = new Deflater(Math.min(level, Deflater.BEST_COMPRESSION));
+        try {
+            DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater);
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(deflated));
+            if (full) {
+                c.write(data, true);
+            } else {
+                c.write(data);
+            }
+            data.flush();
+            deflated.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Returns the SHAs of the commits in THIS that start with prefix, saved
+     * or not, but at most limit of them. prefix must be lowercase hex.
+     */
+    public ArrayList<String> resolve(String prefix, int limit) {
+        ArrayList<String> found = new ArrayList<String>();
+        if (!prefix.matches("[0-9a-f]+")) {
+            return found;
+        }
+        try {
+            found = graph.matching(prefix, limit);
+        } catch (IOException e) {
+            System.out.println("Could not read commit graph: " + e);
+        }
+        for (String sha : added.keySet()) {
+            if (found.size() < limit && sha.startsWith(prefix) && !found.contains(sha)) {
+                found.add(sha);
+            }
+        }
+        return found;
+    }
+
+    /** Returns the SHAs of all commits on disk or put in THIS. */
+    public ArrayList<String> keySet() {
+        ArrayList<String> shas = new ArrayList<String>();
+        File[] fanout = new File(dirPath).listFiles();
+        if (fanout != null) {
+            for (File dir : fanout) {
+                for (String rest : dir.list()) {
+                    if (!rest.endsWith(".tmp")) {
+                        shas.add(dir.getName() + rest);
+                    }
+                }
+            }
+        }
+        for (String sha : added.keySet()) {
+            if (!isSaved(sha)) {
+                shas.add(sha);
+            }
+        }
+        return shas;
+    }
+}
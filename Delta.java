@@ -0,0 +1,133 @@
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Binary deltas between two versions of a file. A delta is the lengths of
+ * the base and the target, followed by instructions that either copy a run
+ * of bytes from the base or insert literal bytes, which rebuild the target
+ * when applied to the base in order. Matches are found by indexing the base
+ * in BLOCK-byte blocks and extending every block the target shares with it
+ * in both directions.
+ */
+public class Delta {
+    private static final int BLOCK = 16;
+    private static final int INSERT = 0;
+    private static final int COPY = 1;
+
+    /** Returns a delta that turns base into target. */
+    public static byte[] create(byte[] base, byte[] target) {
+        int size = Integer.highestOneBit(Math.max(1, base.length / BLOCK)) * 4;
+        int[] table = new int[size];
+        for (int off = 0; off + BLOCK <= base.length; off += BLOCK) {
+            int slot = hashAt(base, off) & (size - 1);
+            if (table[slot] == 0) {
+                table[slot] = off + 1;
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarInt(out, base.length);
+        writeVarInt(out, target.length);
+        int pending = 0;
+        int i = 0;
+        while (i + BLOCK <= target.length) {
+            int cand = table[hashAt(target, i) & (size - 1)] - 1;
+            if (cand < 0 || !regionEquals(base, cand, target, i, BLOCK)) {
+                i += 1;
+                continue;
+            }
+            int start = i, baseStart = cand;
+            while (start > pending && baseStart > 0 && target[start - 1] == base[baseStart - 1]) {
+                start -= 1;
+                baseStart -= 1;
+            }
+            int end = i + BLOCK, baseEnd = cand + BLOCK;
+            while (end < target.length && baseEnd < base.length && target[end] == base[baseEnd]) {
+                end += 1;
+                baseEnd += 1;
+            }
+            writeInsert(out, target, pending, start);
+            out.write(COPY);
+            writeVarInt(out, baseStart);
+            writeVarInt(out, end - start);
+            i = end;
+            pending = end;
+        }
+        writeInsert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the target rebuilt by applying delta to base. */
+    public static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        if (readVarInt(delta, pos) != base.length) {
+            throw new IllegalArgumentException("Delta does not match its base.");
+        }
+        byte[] target = new byte[readVarInt(delta, pos)];
+        int t = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]];
+            pos[0] += 1;
+            if (op == COPY) {
+                int off = readVarInt(delta, pos);
+                int len = readVarInt(delta, pos);
+                System.arraycopy(base, off, target, t, len);
+                t += len;
+            } else {
+                int len = readVarInt(delta, pos);
+                System.arraycopy(delta, pos[0], target, t, len);
+                pos[0] += len;
+                t += len;
+            }
+        }
+        return target;
+    }
+
+    /** Returns a hash of the BLOCK bytes of b starting at off. */
+    private static int hashAt(byte[] b, int off) {
+        int h = 0;
+        for (int i = off; i < off + BLOCK; i++) {
+            h = 31 * h + b[i];
+        }
+        return h ^ (h >>> 15);
+    }
+
+    /** Returns true if len bytes of a at aOff equal those of b at bOff. */
+    private static boolean regionEquals(byte[] a, int aOff, byte[] b, int bOff, int len) {
+        for (int i = 0; i < len; i++) {
+            if (a[aOff + i] != b[bOff + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Writes an instruction inserting target[from, to), if it is not empty. */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target, int from, int to) {
+        if (from < to) {
+            out.write(INSERT);
+            writeVarInt(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /** Writes the non-negative value as 7-bit groups, lowest first. */
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** Reads a value written by writeVarInt at pos[0], advancing it. */
+    private static int readVarInt(byte[] b, int[] pos) {
+        int value = 0;
+        for (int shift = 0;; shift += 7) {
+            int x = b[pos[0]];
+            pos[0] += 1;
+            value |= (x & 0x7f) << shift;
+            if ((x & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * JUnit tests for Delta: that applying a delta to its base rebuilds the
+ * target, and that a target sharing most of its base gets a small delta.
+ */
+public class DeltaTest {
+    /** Returns n random bytes, the same for every seed. */
+    private static byte[] random(int n, long seed) {
+        byte[] b = new byte[n];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    /** Asserts that the delta from base to target rebuilds target, and returns it. */
+    private static byte[] roundTrip(byte[] base, byte[] target) {
+        byte[] delta = Delta.create(base, target);
+        assertArrayEquals(target, Delta.apply(base, delta));
+        return delta;
+    }
+
+    /** Tests a round trip through a small edit in the middle of a file. */
+    @Test
+    public void testEditRoundTrip() {
+        byte[] base = random(10000, 1);
+        byte[] target = base.clone();
+        target[5000] ^= 1;
+        byte[] delta = roundTrip(base, target);
+        assertTrue(delta.length < 100);
+    }
+
+    /** Tests round trips through insertions and deletions at either end and inside. */
+    @Test
+    public void testInsertDeleteRoundTrip() {
+        byte[] base = random(4096, 2);
+        byte[] inserted = random(300, 3);
+        byte[] target = new byte[base.length + inserted.length];
+        System.arraycopy(base, 0, target, 0, 2000);
+        System.arraycopy(inserted, 0, target, 2000, inserted.length);
+        System.arraycopy(base, 2000, target, 2000 + inserted.length, base.length - 2000);
+        roundTrip(base, target);
+        roundTrip(target, base);
+        roundTrip(base, Arrays.copyOfRange(base, 100, base.length));
+        roundTrip(base, Arrays.copyOf(base, 3000));
+        byte[] prefixed = new byte[base.length + 7];
+        System.arraycopy(base, 0, prefixed, 7, base.length);
+        roundTrip(base, prefixed);
+    }
+
+    /** Tests round trips where base or target is empty, shorter than a block, or unrelated. */
+    @Test
+    public void testEdgeRoundTrips() {
+        byte[] empty = new byte[0];
+        byte[] text = "short\n".getBytes(UTF_8);
+        roundTrip(empty, empty);
+        roundTrip(empty, text);
+        roundTrip(text, empty);
+        roundTrip(text, "shorter\n".getBytes(UTF_8));
+        roundTrip(random(1000, 4), random(1000, 5));
+        byte[] base = random(2048, 6);
+        roundTrip(base, base.clone());
+    }
+
+    /** Tests that a delta applied to a base of another length is refused. */
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongBase() {
+        byte[] delta = Delta.create(random(100, 7), random(100, 8));
+        Delta.apply(random(99, 7), delta);
+    }
+}
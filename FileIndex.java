@@ -0,0 +1,173 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Persisted cache of working file metadata, kept in <gitletDir>/index. For
+ * each path it records the size, modification time and inode the file had
+ * when its content hash was last known, so an unchanged file can be
+ * recognized from its metadata alone, without reading it.
+ */
+public class FileIndex {
+    /**
+     * A file modified within this many milliseconds of being recorded may
+     * have changed again without its modification time changing, so its
+     * entry is not trusted.
+     */
+    private static final long RACY_MILLIS = 1000;
+    private String path;
+    private HashMap<String, Entry> entries;
+    private boolean dirty;
+
+    /** Metadata and content hash of one working file. */
+    private static class Entry {
+        private long size;
+        private long mtime;
+        private String inode;
+        private String hash;
+        private long recorded;
+    }
+
+    /** Constructs the index of the gitlet directory gitletDir, e.g. ".gitlet". */
+    public FileIndex(String gitletDir) {
+        path = gitletDir + "/index";
+        entries = null;
+        dirty = false;
+    }
+
+    /**
+     * Reads the index file, the first time THIS is used. Once it is read,
+     * lookups may run from several threads at once.
+     */
+    public synchronized void load() throws IOException {
+        if (entries != null) {
+            return;
+        }
+        HashMap<String, Entry> read = new HashMap<String, Entry>();
+        if (!new File(path).exists()) {
+            entries = read;
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(path)))) {
+            for (int i = in.readInt(); i > 0; i--) {
+                String filename = in.readUTF();
+                Entry e = new Entry();
+                e.size = in.readLong();
+                e.mtime = in.readLong();
+                e.inode = in.readUTF();
+                e.hash = in.readUTF();
+                e.recorded = in.readLong();
+                read.put(filename, e);
+            }
+        }
+        entries = read;
+    }
+
+    /** Returns the current metadata of filename, without a hash. */
+    private static Entry stat(String filename) throws IOException {
+        return entryOf(Files.readAttributes(Paths.get(filename), BasicFileAttributes.class));
+    }
+
+    /** Returns the metadata in a, without a hash. */
+    private static Entry entryOf(BasicFileAttributes a) {
+        Entry e = new Entry();
+        e.size = a.size();
+        e.mtime = a.lastModifiedTime().toMillis();
+        e.inode = (a.fileKey() == null) ? "" : a.fileKey().toString();
+        return e;
+    }
+
+    /**
+     * Returns the content hash of filename if its metadata is unchanged since
+     * it was recorded, or null if the file has to be read to know.
+     */
+    public String lookup(String filename) throws IOException {
+        Entry cached = trusted(filename);
+        return (cached == null) ? null : matching(cached, stat(filename));
+    }
+
+    /**
+     * Returns the content hash of filename if its metadata, as read into a,
+     * is unchanged since it was recorded, or null if the file has to be read
+     * to know. Once THIS is loaded, this may run from several threads.
+     */
+    public String lookup(String filename, BasicFileAttributes a) throws IOException {
+        Entry cached = trusted(filename);
+        return (cached == null) ? null : matching(cached, entryOf(a));
+    }
+
+    /** Returns the entry of filename, or null if there is none to trust. */
+    private Entry trusted(String filename) throws IOException {
+        load();
+        Entry cached = entries.get(filename);
+        if (cached == null || cached.mtime + RACY_MILLIS >= cached.recorded) {
+            return null;
+        }
+        return cached;
+    }
+
+    /** Returns the hash of cached if now has the same metadata, else null. */
+    private static String matching(Entry cached, Entry now) {
+        if (now.size != cached.size || now.mtime != cached.mtime
+                || !now.inode.equals(cached.inode)) {
+            return null;
+        }
+        return cached.hash;
+    }
+
+    /** Records that filename, as it is now, has content hash hash. */
+    public void record(String filename, String hash) throws IOException {
+        record(filename, Files.readAttributes(Paths.get(filename), BasicFileAttributes.class),
+                hash);
+    }
+
+    /**
+     * Records that filename, with the metadata in a, read before it was
+     * hashed, has content hash hash.
+     */
+    public void record(String filename, BasicFileAttributes a, String hash) throws IOException {
+        load();
+        Entry e = entryOf(a);
+        e.hash = hash;
+        e.recorded = System.currentTimeMillis();
+        entries.put(filename, e);
+        dirty = true;
+    }
+
+    /** Writes the index file, if anything was recorded since it was read. */
+    public void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        Path tmp = Paths.get(path + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp.toFile())))) {
+            out.writeInt(entries.size());
+            for (String filename : entries.keySet()) {
+                Entry e = entries.get(filename);
+                out.writeUTF(filename);
+                out.writeLong(e.size);
+                out.writeLong(e.mtime);
+                out.writeUTF(e.inode);
+                out.writeUTF(e.hash);
+                out.writeLong(e.recorded);
+            }
+        }
+        Files.move(tmp, Paths.get(path), REPLACE_EXISTING, ATOMIC_MOVE);
+        dirty = false;
+    }
+}
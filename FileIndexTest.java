@@ -0,0 +1,74 @@
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * JUnit tests for FileIndex: that a recorded hash is returned while the
+ * file's metadata is unchanged, and not for a file recorded so soon after
+ * it was modified that a later edit could keep its modification time.
+ */
+public class FileIndexTest {
+    private static final String HASH = String.format("%064x", 42);
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private String gitletDir;
+    private Path file;
+    private String filename;
+
+    @Before
+    public void setUp() throws IOException {
+        gitletDir = folder.newFolder(".gitlet").getPath();
+        file = folder.newFile("f.txt").toPath();
+        filename = file.toString();
+    }
+
+    /** Writes text to the file and sets its modification time to mtime. */
+    private void write(String text, long mtime) throws IOException {
+        Files.write(file, text.getBytes(UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(mtime));
+    }
+
+    /** Tests that a file last modified well before it was recorded is trusted. */
+    @Test
+    public void testSettledFileTrusted() throws IOException {
+        long mtime = System.currentTimeMillis() - 10000;
+        write("abc", mtime);
+        FileIndex index = new FileIndex(gitletDir);
+        index.record(filename, HASH);
+        assertEquals(HASH, index.lookup(filename));
+        index.save();
+        assertEquals(HASH, new FileIndex(gitletDir).lookup(filename));
+
+        write("abcd", mtime);
+        assertNull(index.lookup(filename));
+        write("abc", mtime + 1000);
+        assertNull(index.lookup(filename));
+    }
+
+    /**
+     * Tests that a file recorded within a second of being modified is not
+     * trusted, since an edit keeping its size and modification time would
+     * go unnoticed.
+     */
+    @Test
+    public void testRacyFileNotTrusted() throws IOException {
+        long mtime = System.currentTimeMillis();
+        write("abc", mtime);
+        FileIndex index = new FileIndex(gitletDir);
+        index.record(filename, HASH);
+        write("xyz", mtime);
+        assertNull(index.lookup(filename));
+        index.save();
+        assertNull(new FileIndex(gitletDir).lookup(filename));
+    }
+}
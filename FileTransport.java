@@ -0,0 +1,38 @@
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Transport to a repository in a directory of this machine, a remote added
+ * with a file:// URL or on localhost. Its gitlet directory is read and
+ * written in place, through java.nio, so nothing is downloaded and no
+ * process is started; a push pack is already where it belongs, and is
+ * indexed at once.
+ */
+public class FileTransport implements Transport {
+    private String gitletDir;
+
+    /** Constructs a transport to the repository in the directory location. */
+    public FileTransport(String location) {
+        gitletDir = location + "/.gitlet";
+    }
+
+    @Override
+    public String gitletDir() {
+        return gitletDir;
+    }
+
+    @Override
+    public void download(Collection<String> paths) {
+    }
+
+    @Override
+    public void downloadRanges(String path, long[] offsets, long[] lengths) {
+    }
+
+    @Override
+    public void sendPack(String path) throws IOException {
+        if (!PushPack.receiveAll(gitletDir)) {
+            throw new IOException("The remote rejected the push.");
+        }
+    }
+}
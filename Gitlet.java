@@ -1,41 +1,65 @@
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileReader;
+import java.io.OutputStream;
 import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.io.IOException;
 import java.io.BufferedReader;
 import java.nio.file.Paths;
-import java.util.Arrays;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
 public class Gitlet implements Serializable {
     private static final long serialVersionUID = 1L;
+    /** Most candidates listed for an ambiguous abbreviated commit id. */
+    private static final int MAX_AMBIGUOUS = 10;
+    /** What separates the words of a message, for find --token. */
+    private static final String TOKEN_SEPARATORS = "[^A-Za-z0-9_#-]+";
+    /** Prefix of the location of a remote on this machine. */
+    private static final String FILE_SCHEME = "file://";
+    /** Number of threads files are checked out, scanned and copied with. */
+    public static final int IO_WORKERS =
+            Math.min(16, 2 * Runtime.getRuntime().availableProcessors());
     private CommitNode head;
     private int commitID;
     private HashSet<String> stagedFiles;
     private HashSet<String> rmFiles;
     private HashMap<String, CommitNode> b2h;
-    // SHA HashMap<Integer, CommitNode> id2c;
     private HashMap<CommitNode, HashMap<String, Branch>> h2b;
-    private HashMap<Integer, CommitNode> id2c;
-    private HashMap<String, HashSet<String>> msg2ids;
     private Branch currBranch;
     private Branch commitTree;
     private String currName;
     // SHA remote features:
     private HashMap<String, String> r2login;
     private HashMap<String, String> r2loc;
-    private HashMap<String, CommitNode> sha2c;
+    /** Remote-tracking refs: SHA each remote branch was last fetched at, by "remote/branch". */
+    private HashMap<String, String> tracking;
+    private CommitStore sha2c;
     private String firstSHA; // SHA of "initial commit " 0.
     private HashSet<String> dangerousMethods;
+    private transient StateLog stateLog;
+    private transient FileIndex fileIndex;
 
     /** Constructor that initializes all variables. */
     public Gitlet() {
@@ -49,11 +73,11 @@ public class Gitlet implements Serializable {
         rmFiles = new HashSet<String>();
         b2h = new HashMap<String, CommitNode>();
         h2b = new HashMap<CommitNode, HashMap<String, Branch>>();
-        id2c = new HashMap<Integer, CommitNode>();
-        sha2c = new HashMap<String, CommitNode>();
-        msg2ids = new HashMap<String, HashSet<String>>();
+        sha2c = new CommitStore(".gitlet");
+        fileIndex = new FileIndex(".gitlet");
         r2loc = new HashMap<String, String>();
         r2login = new HashMap<String, String>();
+        tracking = new HashMap<String, String>();
         dangerousMethods = new HashSet<String>();
     }
 
@@ -84,56 +108,87 @@ public class Gitlet implements Serializable {
 
     }
 
-    /** Saves the current state of Gitlet. */
-    private static void save(Gitlet g) {
+    /**
+     * Saves the current state of Gitlet by appending whatever changed since
+     * it was read to the state log in gitletDir. Read-only commands write
+     * nothing.
+     */
+    private static void save(Gitlet g, String gitletDir) {
+        if (g.stateLog == null) {
+            g.stateLog = new StateLog(gitletDir);
+        }
+        ArrayList<CommitNode> roots = new ArrayList<CommitNode>(g.b2h.values());
+        if (g.head != null) {
+            roots.add(g.head);
+        }
         try {
-            File saveGitlet = new File(".gitlet/savedGitlet.ser");
-            FileOutputStream fileOut = new FileOutputStream(saveGitlet);
-            ObjectOutputStream objectOut = new ObjectOutputStream(fileOut);
-            objectOut.writeObject(g);
-            objectOut.close();
-            fileOut.close();
+            g.sha2c.save(roots);
+            g.stateLog.syncRoot(g.firstSHA);
+            g.stateLog.syncRefs(g.b2h);
+            g.stateLog.syncHead(g.currName, g.head);
+            g.stateLog.syncStaging(g.stagedFiles, g.rmFiles);
+            g.stateLog.syncRemotes(g.r2login, g.r2loc);
+            g.stateLog.syncTracking(g.tracking);
+            g.stateLog.syncCounter(g.commitID);
+            g.stateLog.flush();
+            g.stateLog.compact();
+            g.fileIndex.save();
         } catch (IOException e) {
             String msg = "IOException while saving gitlet state!";
             System.out.println(msg);
         }
-
     }
 
-    /** Reads the saved state of Gitlet, if it exists. */
-    private static Gitlet readSaved() {
-        Gitlet prevGitlet = null;
-        if (new File(".gitlet/savedGitlet.ser").exists()) {
-            try {
-                FileInputStream fin = new FileInputStream(".gitlet/savedGitlet.ser");
-                ObjectInputStream ois = new ObjectInputStream(fin);
-                Object historyObject = ois.readObject();
-                prevGitlet = (Gitlet) historyObject;
-                /*
-                 * this.currBranch = prevGitlet.currBranch; this.commitID =
-                 * prevGitlet.commitID; this.currName = prevGitlet.currName;
-                 * this.head = prevGitlet.head; this.stagedFiles =
-                 * prevGitlet.stagedFiles; this.rmFiles = prevGitlet.rmFiles;
-                 * this.b2h = prevGitlet.b2h; this.h2b = prevGitlet.h2b;
-                 * this.id2c = prevGitlet.id2c;
-                 */
-                ois.close();
-                fin.close();
-            } catch (IOException | ClassNotFoundException e) {
-                System.out.println("Could not read previous gitlet state!");
-                System.out.println(e);
-                System.exit(1);
+    /**
+     * Reads the saved state of the Gitlet in gitletDir by replaying its state
+     * log. Only the branch heads are read from the commit store; every other
+     * commit is read when it is first needed. Returns null if there is no
+     * saved state.
+     */
+    private static Gitlet readSaved(String gitletDir) throws IOException {
+        StateLog log = new StateLog(gitletDir);
+        if (!log.exists()) {
+            return null;
+        }
+        log.load();
+        Gitlet g = new Gitlet();
+        g.stateLog = log;
+        g.sha2c = new CommitStore(gitletDir);
+        g.fileIndex = new FileIndex(gitletDir);
+        g.firstSHA = log.getRoot();
+        g.commitID = log.getCounter();
+        g.currName = log.getCurrName();
+        g.head = g.sha2c.get(log.getHeadSHA());
+        g.stagedFiles = new HashSet<String>(log.getStaged());
+        g.rmFiles = new HashSet<String>(log.getMarked());
+        g.r2login = new HashMap<String, String>(log.getLogins());
+        g.r2loc = new HashMap<String, String>(log.getLocs());
+        g.tracking = new HashMap<String, String>(log.getTracking());
+        for (String name : log.getRefs().keySet()) {
+            CommitNode c = g.sha2c.get(log.getRefs().get(name));
+            g.b2h.put(name, c);
+            if (!g.h2b.containsKey(c)) {
+                g.h2b.put(c, new HashMap<String, Branch>());
             }
+            g.h2b.get(c).put(name, new Branch(c, name));
+        }
+        if (g.head != null && g.h2b.containsKey(g.head)) {
+            g.currBranch = g.h2b.get(g.head).get(g.currName);
         }
-        return prevGitlet;
+        return g;
     }
 
-    /** Creates .gitlet directory if it doesn't already exist. */
+    /**
+     * Creates .gitlet directory if it doesn't already exist, and saves the
+     * state at once, so a command that fails later, as in batch mode, never
+     * leaves a .gitlet without it.
+     */
     private void initialize() {
         File dir = new File(".gitlet");
         if (!dir.exists()) {
             dir.mkdir();
             this.commit("initial commit", true);
+            Gitlet.save(this, ".gitlet");
         } else {
             System.out.println("A gitlet version control system already exists in the current"
                     + " directory.");
@@ -145,6 +200,8 @@ public class Gitlet implements Serializable {
      * If the file had been marked for removal, unmark it. If the file does not
      * exist, print an error message. If the file has not been modified since
      * the last commit, aborts and prints an error message. Otherwise, stage it.
+     * Whether it was modified is first decided from the file index, and the
+     * file is only compared with the committed copy if its metadata changed.
      */
     private void addFile(String filename) {
         File f = new File(filename);
@@ -156,9 +213,9 @@ public class Gitlet implements Serializable {
             rmFiles.remove(filename);
             return;
         }
-        if (head != null) {
+        if (head != null && head.fileExists(filename)) {
             // System.out.println(f+" compared to "+head.getFile(filename));
-            if (fileEquals(f, head.getFile(filename))) {
+            if (isUnmodified(filename)) {
                 System.out.println("File has not been modified since the last commit.");
                 return;
             }
@@ -166,17 +223,34 @@ public class Gitlet implements Serializable {
         stagedFiles.add(filename);
     }
 
-    /** Reads in bytes from File1 and File2. Returns true if contents are equal. */
-    private boolean fileEquals(File file1, File file2) {
-        if (file1 != null && file2 != null) {
-            try {
-                byte[] fp1 = Files.readAllBytes(file1.toPath());
-                byte[] fp2 = Files.readAllBytes(file2.toPath());
-                return Arrays.equals(fp1, fp2);
-            } catch (IOException e) {
-                System.out.println("Couldn't compare files: " + file1.getName() + " "
-                        + file2.getName() + " : " + e);
+    /** Returns true if filename has the same contents as in head. */
+    private boolean isUnmodified(String filename) {
+        String blob = head.blobOf(filename);
+        try {
+            String cached = fileIndex.lookup(filename);
+            if (cached != null) {
+                return cached.equals(blob);
+            }
+            if (fileEquals(filename, blob)) {
+                fileIndex.record(filename, blob);
+                return true;
             }
+        } catch (IOException e) {
+            System.out.println("Couldn't check file: " + filename + " : " + e);
+        }
+        return false;
+    }
+
+    /**
+     * Compares the file filename with the stored blob, in fixed-size chunks
+     * stopping at the first difference if the blob is loose, or by hash if it
+     * is packed. Returns true if contents are equal.
+     */
+    private boolean fileEquals(String filename, String blob) {
+        try {
+            return new BlobStore(".gitlet").matches(blob, Paths.get(filename));
+        } catch (IOException e) {
+            System.out.println("Couldn't compare files: " + filename + " " + blob + " : " + e);
         }
         return false;
     }
@@ -223,19 +297,17 @@ public class Gitlet implements Serializable {
         }
         CommitNode c = new CommitNode(head, currName, msg, new HashSet<String>(stagedFiles),
                 new HashSet<String>(rmFiles), null, false, false);
+        for (String filename : c.getNewFiles()) {
+            try {
+                fileIndex.record(filename, c.blobOf(filename));
+            } catch (IOException e) {
+                System.out.println("Couldn't index file: " + filename + " : " + e);
+            }
+        }
         String sha = c.getSHA();
         if (head == null) {
             firstSHA = sha;
         }
-        if (msg2ids.containsKey(msg)) {
-            msg2ids.get(msg).add(sha);
-            // SHA msg2ids.get(msg).add(commitID);
-        } else {
-            HashSet<String> tempSet = new HashSet<String>();
-            // SHA HashSet<Integer> tempSet = new HashSet<Integer>();
-            tempSet.add(sha);
-            msg2ids.put(msg, tempSet);
-        }
         Branch b = new Branch(c, currName);
         if (currBranch != null) {
             currBranch.addSubranch(b);
@@ -251,7 +323,6 @@ public class Gitlet implements Serializable {
         temp.put(currName, b);
         h2b.put(c, temp);
         sha2c.put(c.getSHA(), c);
-        id2c.put(commitID, c);
         commitID += 1;
         stagedFiles = new HashSet<String>();
         rmFiles = new HashSet<String>();
@@ -284,29 +355,41 @@ public class Gitlet implements Serializable {
         }
     }
 
-    /** Old version of reset, just kept here for reference purposes. */
-    private void reset(String idString) {
-        int id;
-        try {
-            id = Integer.parseInt(idString);
-            CommitNode c = id2c.get(id);
-            if (id <= commitID && id >= 0) {
-                restoreAllFiles(c);
-            } else {
-                System.out.println("No commit with that id exists.");
-                return;
+    /**
+     * Returns the full SHA of the commit whose SHA is or starts with id. If
+     * there is no such commit, or more than one, says so and returns null.
+     */
+    private String resolveSHA(String id) {
+        if (sha2c.containsKey(id)) {
+            return id;
+        }
+        ArrayList<String> found = sha2c.resolve(id, MAX_AMBIGUOUS + 1);
+        if (found.isEmpty()) {
+            System.out.println("No commit with that id exists.");
+            return null;
+        }
+        if (found.size() > 1) {
+            System.out.println("Ambiguous commit id " + id + "; it could be:");
+            for (int i = 0; i < Math.min(found.size(), MAX_AMBIGUOUS); i++) {
+                System.out.println(found.get(i));
             }
-            head = c;
-            b2h.put(currName, c);
-            h2b.get(c).put(currName, currBranch);
-        } catch (NumberFormatException n) {
-            System.out.println("Invalid ID format.");
+            if (found.size() > MAX_AMBIGUOUS) {
+                System.out.println("...");
+            }
+            return null;
         }
-
+        return found.get(0);
     }
 
-    /** Resets all files to their versions in the commit with the given (SHA) id. */
-    private void resetSHA(String sha) {
+    /**
+     * Resets all files to their versions in the commit with the given (SHA)
+     * id, which may be abbreviated to any unique prefix.
+     */
+    private void resetSHA(String id) {
+        String sha = resolveSHA(id);
+        if (sha == null) {
+            return;
+        }
         CommitNode c = sha2c.get(sha);
         if (c != null) {
             restoreAllFiles(c);
@@ -372,18 +455,18 @@ public class Gitlet implements Serializable {
             // SHA try {
             // SHA id = Integer.parseInt(args[0]);
             // System.out.println(id);
-            // SHA CommitNode c = id2c.get(id);
-            CommitNode c = sha2c.get(sha);
+            sha = resolveSHA(sha);
             // System.out.println(c.getID());
             // SHA if (id <= commitID) {
-            if (sha2c.containsKey(sha)) {
-                if (c.fileExists(s)) {
+            if (sha != null) {
+                CommitNode c = sha2c.get(sha);
+                if (c == null) {
+                    System.out.println("No commit with that id exists.");
+                } else if (c.fileExists(s)) {
                     restoreFile(s, c, false);
                 } else {
                     System.out.println("File does not exist in that commit.");
                 }
-            } else {
-                System.out.println("No commit with that id exists.");
             }
             /*
              * SHA } catch (NumberFormatException n) {
@@ -409,48 +492,97 @@ public class Gitlet implements Serializable {
             System.out.println("File does not exist in that commit.");
             return;
         }
-        if (c.folderContainsFile(filename)) {
-            String sha = c.getSHA();
-            String from = ".gitlet/" + sha + "/" + filename;
-            // System.out.println("Getting from: " + from);
+        ArrayList<String> filenames = new ArrayList<String>();
+        filenames.add(filename);
+        restoreFiles(filenames, c, isMergeConflict);
+    }
+
+    /**
+     * Restores all of filenames to their versions in Commit c, by
+     * checkoutAll. Files the file index knows to be up to date already are
+     * not touched.
+     */
+    private void restoreFiles(Collection<String> filenames, CommitNode c,
+            boolean isMergeConflict) {
+        HashMap<Path, String> copies = new HashMap<Path, String>();
+        for (String filename : filenames) {
             String to = filename;
             if (isMergeConflict) {
                 to += ".conflicted";
+            } else if (isUpToDate(filename, c.blobOf(filename))) {
+                continue;
             }
-            /*
-             * File sourceFile = new File(from); File destFile = new File(to);
-             * FileChannel sourceChannel = null; FileChannel destinationChannel
-             * = null; try { sourceChannel = new
-             * FileInputStream(sourceFile).getChannel(); destinationChannel =
-             * new FileOutputStream(destFile).getChannel();
-             * destinationChannel.transferFrom(source, 0, source.size()); }
-             * finally { if(source != null) { sourceChannel.close(); }
-             * if(destination != null) { destinationChannel.close(); } }
-             */
-            Path fromPath = Paths.get(from);
-            Path toPath = Paths.get(to);
-            // System.out.println("Restoring "+filename+" from commit "+sha+"..");
+            copies.put(Paths.get(to), c.blobOf(filename));
+        }
+        for (Path toPath : checkoutAll(new BlobStore(".gitlet"), copies)) {
+            if (!isMergeConflict) {
+                String filename = toPath.toString();
+                try {
+                    fileIndex.record(filename, c.blobOf(filename));
+                } catch (IOException e) {
+                    System.out.println("Can't restore file: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks out the blob of every path in copies from store, and returns
+     * the paths checked out. Every missing directory is created first; the
+     * files are then checked out, by transfer or hard link (see
+     * BlobStore.checkout), by a bounded pool of IO_WORKERS threads.
+     */
+    private static ArrayList<Path> checkoutAll(final BlobStore store,
+            final HashMap<Path, String> copies) {
+        ArrayList<Path> done = new ArrayList<Path>();
+        HashSet<Path> dirs = new HashSet<Path>();
+        for (Path toPath : copies.keySet()) {
+            if (toPath.getParent() != null) {
+                dirs.add(toPath.getParent());
+            }
+        }
+        try {
+            for (Path dir : dirs) {
+                Files.createDirectories(dir);
+            }
+        } catch (IOException ioe) {
+            System.out.println("Can't restore file: " + ioe);
+            return done;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(IO_WORKERS, copies.size())));
+        HashMap<Path, Future<Path>> results = new HashMap<Path, Future<Path>>();
+        for (final Path toPath : copies.keySet()) {
+            results.put(toPath, pool.submit(new Callable<Path>() {
+                public Path call() throws IOException {
+                    store.checkout(copies.get(toPath), toPath);
+                    return toPath;
+                }
+            }));
+        }
+        pool.shutdown();
+        for (Path toPath : results.keySet()) {
             try {
-                Files.copy(fromPath, toPath, REPLACE_EXISTING);
-            } catch (IOException ioe) {
-                System.out.println("Can't restore file: " + ioe);
+                done.add(results.get(toPath).get());
+            } catch (InterruptedException | ExecutionException e) {
+                System.out.println("Can't restore file: " + e);
             }
-        } else {
-            /*
-             * System.out.println(filename+"Not found originally in"+c.getID());
-             * System.out.println(", found in: " +
-             * c.whereToFind(filename).getID());
-             */
-            restoreFile(filename, c.whereToFind(filename), isMergeConflict);
+        }
+        return done;
+    }
+
+    /** Returns true if the file index knows filename to hold blob already. */
+    private boolean isUpToDate(String filename, String blob) {
+        try {
+            return new File(filename).isFile() && blob.equals(fileIndex.lookup(filename));
+        } catch (IOException e) {
+            return false;
         }
     }
 
     /** Restores all files to their versions in c. */
     private void restoreAllFiles(CommitNode c) {
-        HashSet<String> allFiles = c.getAllFiles();
-        for (String filename : allFiles) {
-            restoreFile(filename, c, false);
-        }
+        restoreFiles(c.getAllFiles(), c, false);
         /*
          * if (f1.isDirectory()) { for (File dirFiles: f1.listFiles()) {
          * restoreAllFiles(dirFiles, c); } } else if (f1.isFile()) { String path
@@ -469,49 +601,50 @@ public class Gitlet implements Serializable {
      * Returns the ID of the split point of branch1 and branch2. Takes a
      * parameter to differentiate for the pull case, where the split point may
      * be non-existent, as compared to a local case, where the split point must
-     * be initial commit if nothing else. Redundant now, but there for reference
-     * purposes.
+     * be initial commit if nothing else.
      */
     private String splitPoint(String branch1, String branch2, boolean isPull) {
-        HashSet<String> s1 = new HashSet<String>();
-        // SHA HashSet<Integer> s1 = new HashSet<Integer>();
-        HashSet<String> s2 = new HashSet<String>();
-        // SHA HashSet<Integer> s2 = new HashSet<Integer>();
         CommitNode c1 = b2h.get(branch1);
         CommitNode c2 = b2h.get(branch2);
-        return splitHelper(c1, c2, s1, s2, isPull);
+        return splitHelper(c1, c2, isPull);
     }
 
-    /** Helper for splitPoint. */
-    private String splitHelper(CommitNode c1, CommitNode c2, HashSet<String> s1,
-            HashSet<String> s2, boolean isPull) {
-        CommitNode newc1 = null, newc2 = null;
-        if (c1 == null && c2 == null) {
-            if (isPull) {
-                return " ";
-            }
-            return firstSHA;
-        } else {
-            if (c1 != null) {
-                // SHA int i1 = c1.getID();
-                String i1 = c1.getSHA();
-                if (s2.contains(i1)) {
-                    return i1;
+    /**
+     * Helper for splitPoint. Repeatedly steps back from whichever of c1 and
+     * c2 has the higher generation number until they meet, so only the
+     * commits between the two heads and the split point are visited.
+     * Returns null if a step would cross a shallow boundary first, where
+     * the parent of a commit was never fetched.
+     */
+    private String splitHelper(CommitNode c1, CommitNode c2, boolean isPull) {
+        while (c1 != null && c2 != null && !c1.equals(c2)) {
+            if (c1.getGeneration() >= c2.getGeneration()) {
+                CommitNode prev = c1.getPrev();
+                if (prev == null && !c1.getParentSHA().equals("")) {
+                    return null;
                 }
-                s1.add(i1);
-                newc1 = c1.getPrev();
-            }
-            if (c2 != null) {
-                // SHA int i2 = c2.getID();
-                String i2 = c2.getSHA();
-                if (s1.contains(i2)) {
-                    return i2;
+                c1 = prev;
+            } else {
+                CommitNode prev = c2.getPrev();
+                if (prev == null && !c2.getParentSHA().equals("")) {
+                    return null;
                 }
-                s2.add(i2);
-                newc2 = c2.getPrev();
+                c2 = prev;
             }
-            return splitHelper(newc1, newc2, s1, s2, isPull);
         }
+        if (c1 != null && c2 != null) {
+            return c1.getSHA();
+        }
+        if (isPull) {
+            return " ";
+        }
+        return firstSHA;
+    }
+
+    /** Reports a split point that lies beyond the shallow boundary. */
+    private static void printShallowSplit() {
+        System.out.println("The split point is not in this shallow clone;"
+                + " run deepen remoteName N first.");
     }
 
     /** Merges the givenBranch with the current branch. */
@@ -523,30 +656,36 @@ public class Gitlet implements Serializable {
         } else {
             // SHA int splitID = splitPoint(currName, givenBranch, false);
             String splitID = splitPoint(currName, givenBranch, false);
+            if (splitID == null) {
+                printShallowSplit();
+                return;
+            }
             CommitNode splitNode = sha2c.get(splitID);
             CommitNode givenHead = b2h.get(givenBranch);
             // SHA int givenID = givenHead.getID();
             String givenID = givenHead.getSHA();
             // SHA int splitLast = -1, currLast = -1, givenLast = -1;
-            HashSet<String> allFiles = head.getAllFiles();
-            HashSet<String> givenHeadAll = givenHead.getAllFiles();
+            HashSet<String> allFiles = new HashSet<String>(head.getAllFiles());
+            Set<String> givenHeadAll = givenHead.getAllFiles();
             allFiles.addAll(givenHeadAll);
+            ArrayList<String> fromGiven = new ArrayList<String>();
+            ArrayList<String> conflicted = new ArrayList<String>();
             for (String filename : allFiles) {
                 String splitLast = "", currLast = "", givenLast = "";
                 // String filename = f.getName();
-                if (splitNode.whereToFind(filename) != null) {
-                    splitLast = splitNode.whereToFind(filename).getSHA();
+                if (splitNode.blobOf(filename) != null) {
+                    splitLast = splitNode.blobOf(filename);
                 }
-                if (head.whereToFind(filename) != null) {
-                    currLast = head.whereToFind(filename).getSHA();
+                if (head.blobOf(filename) != null) {
+                    currLast = head.blobOf(filename);
                 }
-                if (givenHead.whereToFind(filename) != null) {
-                    givenLast = givenHead.whereToFind(filename).getSHA();
+                if (givenHead.blobOf(filename) != null) {
+                    givenLast = givenHead.blobOf(filename);
                 }
                 if (currLast.equals("") && givenLast.equals("")) {
                     int yolo = 0; // do nothing
                 } else if (currLast.equals("") && !givenLast.equals("")) {
-                    restoreFile(filename, givenHead, false);
+                    fromGiven.add(filename);
                 } else if (givenLast.equals("") && !currLast.equals("")) {
                     int yolo = 1;
                     // restoreFile(filename, head, false);
@@ -554,32 +693,70 @@ public class Gitlet implements Serializable {
                     // System.out.println(filename+":\ncurrLast:
                     // "+currLast+":\ngivenLast: "+givenLast+":\nsplitLast:
                     // "+splitLast);
-                    if (!currLast.equals(splitLast) && !givenLast.equals(splitLast)) {
+                    if (currLast.equals(givenLast)) {
+                        int yolo = 1; // both branches made the same change
+                    } else if (!currLast.equals(splitLast) && !givenLast.equals(splitLast)) {
                         // System.out.println(filename+": Merge conflict");
-                        restoreFile(filename, givenHead, true);
+                        conflicted.add(filename);
                     } else if (!currLast.equals(splitLast) && givenLast.equals(splitLast)) {
                         // restoreFile(filename, head, false);
                         int yolo = 1;
                         // System.out.println(filename+" is kept as it is, i.e. from "+currName);
                     } else if (!givenLast.equals(splitLast) && currLast.equals(splitLast)) {
                         // System.out.println(filename+": Restored from "+givenBranch);
-                        restoreFile(filename, givenHead, false);
+                        fromGiven.add(filename);
                     }
                 }
             }
+            restoreFiles(fromGiven, givenHead, false);
+            mergeFiles(conflicted, splitNode, givenHead, givenBranch);
         }
     }
 
+    /**
+     * Merges every one of filenames, changed differently on the current and
+     * the given branch since splitNode, line by line with LineMerge. A clean
+     * merge replaces the working file; a merge with conflicts, marked in it,
+     * goes to <file>.conflicted, leaving the working file alone. A binary
+     * file is not merged: its version in givenHead goes to <file>.conflicted.
+     */
+    private void mergeFiles(Collection<String> filenames, CommitNode splitNode,
+            CommitNode givenHead, String givenBranch) {
+        BlobStore store = new BlobStore(".gitlet");
+        ArrayList<String> binary = new ArrayList<String>();
+        for (String filename : filenames) {
+            try {
+                String splitBlob = splitNode.blobOf(filename);
+                byte[] base = (splitBlob == null) ? new byte[0] : store.read(splitBlob);
+                byte[] current = store.read(head.blobOf(filename));
+                byte[] given = store.read(givenHead.blobOf(filename));
+                if (!LineMerge.isText(base) || !LineMerge.isText(current)
+                        || !LineMerge.isText(given)) {
+                    binary.add(filename);
+                    continue;
+                }
+                Path tmp = Paths.get(filename + ".merge.tmp");
+                boolean clean;
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                    clean = LineMerge.merge(base, current, given, out, currName, givenBranch);
+                }
+                Path target = Paths.get(clean ? filename : filename + ".conflicted");
+                Files.move(tmp, target, REPLACE_EXISTING, ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.out.println("Could not merge " + filename + ": " + e);
+            }
+        }
+        restoreFiles(binary, givenHead, true);
+    }
+
     /*
      * Returns a stack of CommitNodes from the split point to the current head,
      * both exclusive. isPull parameter taken since we call splitHelper.
      */
     public Stack<CommitNode> splitStack(CommitNode currHead, CommitNode givenHead, boolean isPull) {
         Stack<CommitNode> split2curr = new Stack<CommitNode>();
-        HashSet<String> currSet = new HashSet<String>();
-        HashSet<String> givenSet = new HashSet<String>();
-        String splitSHA = splitHelper(currHead, givenHead, currSet, givenSet, isPull);
-        if (sha2c.containsKey(splitSHA)) {
+        String splitSHA = splitHelper(currHead, givenHead, isPull);
+        if (splitSHA != null && sha2c.containsKey(splitSHA)) {
             CommitNode splitNode = sha2c.get(splitSHA);
             return splitStackHelper(currHead, splitNode, split2curr);
         } else {
@@ -590,14 +767,14 @@ public class Gitlet implements Serializable {
     /** Helper for splitStack. */
     public Stack<CommitNode> splitStackHelper(CommitNode currHead, CommitNode splitNode,
             Stack<CommitNode> split2curr) {
-        if (currHead == null) {
-            return split2curr;
-        }
-        split2curr.push(currHead);
-        if (currHead.equals(splitNode)) {
-            return split2curr;
+        while (currHead != null) {
+            split2curr.push(currHead);
+            if (currHead.equals(splitNode)) {
+                break;
+            }
+            currHead = currHead.getPrev();
         }
-        return splitStackHelper(currHead.getPrev(), splitNode, split2curr);
+        return split2curr;
     }
 
     /**
@@ -619,6 +796,10 @@ public class Gitlet implements Serializable {
         CommitNode preCurrHead = head;
         CommitNode givenHead = b2h.get(branchName);
         Stack<CommitNode> split2curr = splitStack(head, givenHead, false);
+        if (split2curr == null) {
+            printShallowSplit();
+            return;
+        }
         CommitNode splitNode = split2curr.pop();
         CommitNode startPoint = splitNode;
         CommitNode firstCommit = startPoint; // First initial branchcommit
@@ -654,7 +835,6 @@ public class Gitlet implements Serializable {
                         startPoint.getRmFiles(), startPoint, false, false);
                 head = newNode;
                 sha2c.put(newNode.getSHA(), newNode);
-                id2c.put(commitID, newNode);
                 b2h.put(currName, newNode);
                 temp.put(currName, b);
                 h2b.put(newNode, temp);
@@ -662,13 +842,6 @@ public class Gitlet implements Serializable {
                 givenBranch.addSubranch(b);
                 givenBranch = b;
                 commitID += 1;
-                if (msg2ids.containsKey(msg)) {
-                    msg2ids.get(msg).add(newNode.getSHA());
-                } else {
-                    HashSet<String> tempSet = new HashSet<String>();
-                    tempSet.add(newNode.getSHA());
-                    msg2ids.put(msg, tempSet);
-                }
             } else { // if commit is being skipped
                 newNode = new CommitNode(newNode, currName, msg, startPoint.getNewFiles(),
                         startPoint.getRmFiles(), startPoint, false, true);
@@ -678,7 +851,6 @@ public class Gitlet implements Serializable {
         temp = new HashMap<String, Branch>();
         head = newNode;
         sha2c.put(newNode.getSHA(), newNode);
-        id2c.put(commitID, newNode);
         b2h.put(currName, newNode);
         temp.put(currName, b);
         h2b.put(newNode, temp);
@@ -736,36 +908,280 @@ public class Gitlet implements Serializable {
         }
     }
 
-    /** Prints history of commit, up until initial commit. */
-    public void log() {
-        CommitNode t = head;
-        while (t != null) {
-            t.printInfo();
-            t = t.getPrev();
+    /**
+     * Prints history of commit, up until initial commit, with the options of
+     * LogPrinter. Once the walk reaches a saved commit, it follows the commit
+     * graph and prints from the message index, without reading commit files.
+     * As history goes back in time, the walk ends at the first commit before
+     * --since.
+     */
+    public void log(String[] args) {
+        LogPrinter printer = LogPrinter.parse(args);
+        if (printer == null) {
+            return;
+        }
+        try {
+            CommitNode t = head;
+            Integer pos = sha2c.positionOf(t.getSHA());
+            while (pos == null && !printer.isBefore(t.getTime())
+                    && printer.print(t.getSHA(), t.getTime(), t.getMsg())) {
+                t = t.getPrev();
+                pos = (t == null) ? Integer.valueOf(-1) : sha2c.positionOf(t.getSHA());
+            }
+            MessageIndex index = sha2c.messages();
+            for (int p = (pos == null) ? -1 : pos; p >= 0; p = sha2c.parentOf(p)) {
+                String msg = index.messageAt(p);
+                if (msg.equals("")) {
+                    continue;
+                }
+                long time = index.timeAt(p);
+                if (printer.isBefore(time) || !printer.print(index.shaAt(p), time, msg)) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Could not read commit graph: " + e);
+        }
+        printer.close();
+    }
+
+    /**
+     * Prints info of all commits uptil now, newest first, with ties in
+     * commit time broken by SHA, and with the options of LogPrinter. Entry i
+     * of the message index stands for a saved commit, and entries from its
+     * size on for the commits not saved yet. Only commit times are read to
+     * order them; with -n, only the newest ones are kept while doing so, and
+     * only the messages of those printed are read.
+     */
+    public void globalLog(String[] args) {
+        LogPrinter printer = LogPrinter.parse(args);
+        if (printer == null) {
+            return;
+        }
+        try {
+            final MessageIndex index = sha2c.messages();
+            final ArrayList<CommitNode> pending = sha2c.unsaved();
+            Comparator<Integer> newestFirst = new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    try {
+                        int byTime = Long.compare(entryTime(index, pending, b),
+                                entryTime(index, pending, a));
+                        if (byTime != 0) {
+                            return byTime;
+                        }
+                        return entrySHA(index, pending, a).compareTo(entrySHA(index, pending, b));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            };
+            int wanted = printer.wanted();
+            PriorityQueue<Integer> newest = new PriorityQueue<Integer>(
+                    Math.max(1, wanted + 1), Collections.reverseOrder(newestFirst));
+            ArrayList<Integer> entries = new ArrayList<Integer>();
+            for (int i = 0; i < index.size() + pending.size(); i++) {
+                if (!printer.inRange(entryTime(index, pending, i))
+                        || isSkipped(index, pending, i)) {
+                    continue;
+                }
+                if (wanted < 0) {
+                    entries.add(i);
+                } else if (wanted > 0) {
+                    newest.add(i);
+                    if (newest.size() > wanted) {
+                        newest.poll();
+                    }
+                }
+            }
+            entries.addAll(newest);
+            Collections.sort(entries, newestFirst);
+            for (int i : entries) {
+                if (!printer.print(entrySHA(index, pending, i), entryTime(index, pending, i),
+                        entryMessage(index, pending, i))) {
+                    break;
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("Could not read message index: " + e);
         }
+        printer.close();
+    }
+
+    /** Returns the commit time of entry i of globalLog. */
+    private static long entryTime(MessageIndex index, ArrayList<CommitNode> pending, int i)
+            throws IOException {
+        return (i < index.size()) ? index.timeAt(i) : pending.get(i - index.size()).getTime();
+    }
+
+    /** Returns the SHA of entry i of globalLog. */
+    private static String entrySHA(MessageIndex index, ArrayList<CommitNode> pending, int i)
+            throws IOException {
+        return (i < index.size()) ? index.shaAt(i) : pending.get(i - index.size()).getSHA();
+    }
+
+    /** Returns the message of entry i of globalLog. */
+    private static String entryMessage(MessageIndex index, ArrayList<CommitNode> pending, int i)
+            throws IOException {
+        return (i < index.size()) ? index.messageAt(i) : pending.get(i - index.size()).getMsg();
     }
 
-    /** Prints info of all commits uptil now. */
-    public void globalLog() {
-        // SHA for (int i=0; i < commitID; i++) {
-        for (String i : sha2c.keySet()) {
-            sha2c.get(i).printInfo();
+    /** Returns true if entry i of globalLog was skipped in an interactive rebase. */
+    private static boolean isSkipped(MessageIndex index, ArrayList<CommitNode> pending, int i)
+            throws IOException {
+        if (i < index.size()) {
+            return index.isEmptyAt(i);
         }
+        return pending.get(i - index.size()).isToBeSkipped();
     }
 
-    /** Prints the commit IDs of all commits with message <msg>. */
-    public void find(String msg) {
-        if (!msg2ids.containsKey(msg)) {
-            System.out.println("Found no commit with that message.");
+    /**
+     * Prints the commit IDs of all commits whose message matches, as they are
+     * found: one equal to the given message, or with --substring one
+     * containing it, with --token one having it as a word, or with --regex
+     * one matching the pattern. The message index narrows the saved commits
+     * down before any message is read; commits not saved yet, as in batch
+     * mode, are all checked.
+     */
+    public void find(String[] args) {
+        String mode = "";
+        String text;
+        if (args.length == 2 && args[0].startsWith("--")) {
+            mode = args[0];
+            text = args[1];
+        } else if (args.length == 1) {
+            text = args[0];
         } else {
-            // System.out.println(msg+" was found in: ");
-            for (String i : msg2ids.get(msg)) { // SHA
-                System.out.println(i);
+            System.out.println("Please enter a commit message.");
+            return;
+        }
+        Pattern pattern = null;
+        ArrayList<String> literals = new ArrayList<String>();
+        if (mode.equals("--regex")) {
+            try {
+                pattern = Pattern.compile(text);
+            } catch (PatternSyntaxException e) {
+                System.out.println("Invalid regex: " + e.getDescription());
+                return;
+            }
+            literals = regexLiterals(text);
+        } else if (mode.equals("") || mode.equals("--substring") || mode.equals("--token")) {
+            literals.add(text);
+        } else {
+            System.out.println("Invalid find option: " + mode);
+            return;
+        }
+        boolean found = false;
+        try {
+            MessageIndex index = sha2c.messages();
+            for (int i : index.candidates(literals)) {
+                String msg = index.messageAt(i);
+                if (!msg.equals("") && messageMatches(mode, text, pattern, msg)) {
+                    System.out.println(index.shaAt(i));
+                    found = true;
+                }
+            }
+            for (CommitNode c : sha2c.unsaved()) {
+                if (!c.isToBeSkipped() && messageMatches(mode, text, pattern, c.getMsg())) {
+                    System.out.println(c.getSHA());
+                    found = true;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Could not read message index: " + e);
+        }
+        if (!found) {
+            System.out.println("Found no commit with that message.");
+        }
+    }
+
+    /** Returns true if msg matches text, or pattern, under the find mode. */
+    private static boolean messageMatches(String mode, String text, Pattern pattern,
+            String msg) {
+        switch (mode) {
+            case "--substring":
+                return msg.contains(text);
+            case "--token":
+                for (String token : msg.split(TOKEN_SEPARATORS)) {
+                    if (token.equals(text)) {
+                        return true;
+                    }
+                }
+                return false;
+            case "--regex":
+                return pattern.matcher(msg).find();
+            default:
+                return msg.equals(text);
+        }
+    }
+
+    /**
+     * Returns runs of plain characters that every match of regex must
+     * contain, for narrowing a search. A char followed by ?, * or { may be
+     * absent, and anything inside [] or a backslash and letter such as \d
+     * stands for other chars, so they end a run; a backslash and
+     * metacharacter stands for that char. A group followed by ?, * or { may
+     * be absent too, so the runs inside it are dropped. With |, a (? group
+     * or an escape longer than two chars, such as \x41 or \p{Lu}, nothing
+     * is certain.
+     */
+    private static ArrayList<String> regexLiterals(String regex) {
+        ArrayList<String> literals = new ArrayList<String>();
+        if (regex.contains("|") || regex.contains("(?")) {
+            return literals;
+        }
+        Stack<Integer> groups = new Stack<Integer>();
+        StringBuilder run = new StringBuilder();
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if ("?*{".indexOf(c) >= 0 && run.length() > 0) {
+                run.setLength(run.length() - 1);
+            }
+            if (c == '\\' && i + 1 < regex.length()) {
+                char escaped = regex.charAt(i + 1);
+                if ("\\^$.|?*+()[]{}".indexOf(escaped) >= 0) {
+                    run.append(escaped);
+                    i += 1;
+                    continue;
+                }
+                if ("0123456789ckNpPQEux".indexOf(escaped) >= 0) {
+                    return new ArrayList<String>();
+                }
+            }
+            if ("\\[().^$?*{+}]".indexOf(c) < 0) {
+                run.append(c);
+                continue;
+            }
+            literals.add(run.toString());
+            run.setLength(0);
+            if (c == '\\') {
+                i += 1;
+            } else if (c == '[') {
+                i = regex.indexOf(']', i + 2);
+                if (i < 0) {
+                    break;
+                }
+            } else if (c == '{') {
+                i = Math.max(i, regex.indexOf('}', i));
+            } else if (c == '(') {
+                groups.push(literals.size());
+            } else if (c == ')' && !groups.empty()) {
+                int start = groups.pop();
+                if (i + 1 < regex.length() && "?*{".indexOf(regex.charAt(i + 1)) >= 0) {
+                    literals.subList(start, literals.size()).clear();
+                }
             }
         }
+        literals.add(run.toString());
+        return literals;
     }
 
-    /** Prints a plethora of information useful for book-keeping. */
+    /**
+     * Prints a plethora of information useful for book-keeping: the
+     * branches, the staging area, and how the working directory differs from
+     * the head commit, found by a TreeScan with the number of threads of the
+     * status.threads setting, IO_WORKERS by default.
+     */
     public void status() {
         System.out.println("=== Branches ===");
         System.out.println("*" + currName);
@@ -782,15 +1198,41 @@ public class Gitlet implements Serializable {
         for (String a : rmFiles) {
             System.out.println(a);
         }
+        TreeScan scan = new TreeScan(".gitlet", (head == null) ? PathMap.empty()
+                : head.getFileMap(), stagedFiles, rmFiles, fileIndex);
+        try {
+            scan.run(Math.max(1, BlobStore.setting(".gitlet", "status.threads", IO_WORKERS)));
+        } catch (IOException e) {
+            System.out.println("Couldn't scan the working directory: " + e);
+            return;
+        }
+        System.out.println("\n=== Modifications Not Staged For Commit ===");
+        for (String m : scan.modified()) {
+            System.out.println(m + " (modified)");
+        }
+        for (String d : scan.deleted()) {
+            System.out.println(d + " (deleted)");
+        }
+        System.out.println("\n=== Untracked Files ===");
+        for (String u : scan.untracked()) {
+            System.out.println(u);
+        }
     }
 
     // ******REMOTE FEATURES*******************
 
-    /** Adds a remote with given information. */
+    /**
+     * Adds a remote with given information: a user name, server and
+     * location, or a file:// URL of a repository on this machine.
+     */
     public void addRemote(String[] args) {
         String remoteName = args[0];
-        String login = args[1] + "@" + args[2];
-        String location = args[3];
+        String login = "";
+        String location = args[1];
+        if (!location.startsWith(FILE_SCHEME)) {
+            login = args[1] + "@" + args[2];
+            location = args[3];
+        }
         if (r2login.containsKey(remoteName) || r2loc.containsKey(remoteName)) {
             System.out.println("A remote with that name already exists.");
             return;
@@ -809,55 +1251,34 @@ public class Gitlet implements Serializable {
         }
         r2login.remove(remoteName);
         r2loc.remove(remoteName);
-    }
-
-    /** Runs a terminal command, using the Process class. */
-    public String runCommand(String command) {
-        System.out.println("Running command: " + command);
-        try {
-            // run the Unix "ps -ef" command
-            // using the Runtime exec method:
-            Process p = Runtime.getRuntime().exec(command);
-            BufferedReader stdInput = new BufferedReader(new InputStreamReader(p.getInputStream()));
-            BufferedReader stdError = new BufferedReader(new InputStreamReader(p.getErrorStream()));
-            int i = p.waitFor();
-            stdInput.close();
-            stdError.close();
-            return stdError.toString();
-        } catch (IOException | InterruptedException e) {
-            System.out.println("Exception while running command: " + command + " -- " + e);
-            e.printStackTrace();
-        }
-        return "";
+        for (String name : new ArrayList<String>(tracking.keySet())) {
+            if (name.startsWith(remoteName + "/")) {
+                tracking.remove(name);
+            }
+        }
     }
 
     /**
-     * copies remote gitlet onto a directory called .remoteGitlet on local
-     * machine, and reads remoteGitlet object, returns it.
+     * Returns the repository of the remote remoteName: read in place if it
+     * is a file:// URL or on localhost, else over scp.
      */
-    private Gitlet getRemoteGitlet(String remoteName) {
-        // runCommand("scp -r " + r2login.get(remoteName) + ":" +
-        // r2loc.get(remoteName) + "/.gitlet " + ".remoteGitlet");
-        String s = runCommand("scp -r " + r2login.get(remoteName) + ":" + r2loc.get(remoteName)
-                + "/. remoteWD");
-        Gitlet rmGitlet = null;
-        if (new File("remoteWD/.gitlet/savedGitlet.ser").exists()) {
-            try {
-                FileInputStream fin = new FileInputStream("remoteWD/.gitlet/savedGitlet.ser");
-                ObjectInputStream ois = new ObjectInputStream(fin);
-                Object historyObject = ois.readObject();
-                rmGitlet = (Gitlet) historyObject;
-                fin.close();
-                ois.close();
-            } catch (IOException | ClassNotFoundException e) {
-                System.out.println("Could not read remote gitlet state!");
-                System.out.println(e);
-            }
+    private RemoteRepo remoteOf(String remoteName) {
+        String login = r2login.get(remoteName);
+        String location = r2loc.get(remoteName);
+        if (location.startsWith(FILE_SCHEME)) {
+            return new RemoteRepo(new FileTransport(location.substring(FILE_SCHEME.length())));
+        }
+        if (login.endsWith("@localhost")) {
+            return new RemoteRepo(new FileTransport(location));
         }
-        return rmGitlet;
+        return new RemoteRepo(new ScpTransport(login, location));
     }
 
-    /** Pushes new commits of the given branch onto the given remote. */
+    /**
+     * Pushes new commits of the given branch onto the given remote. Only the
+     * commits the remote lacks are sent, found by walking back from the
+     * branch head until a commit the remote advertises.
+     */
     public void push(String[] args) {
         String remoteName = args[0];
         String branchName = args[1];
@@ -865,88 +1286,133 @@ public class Gitlet implements Serializable {
             System.out.println("No such remote.");
             return;
         }
-        Gitlet remote = getRemoteGitlet(remoteName);
-        if (remote == null) { // i.e. there's no Gitlet state on the remote
-            String s = runCommand("scp -r .gitlet/. " + r2login.get(remoteName) + ":"
-                    + r2loc.get(remoteName) + "/.gitlet");
-            remote = this; // copying gitlet state
-            recursiveDelete(new File("./remoteWD"));
+        if (!this.containsBranch(branchName)) {
+            System.out.println("Local Gitlet does not have that branch.");
             return;
-        } else { // if there is a remote Gitlet state
-            if (!this.containsBranch(branchName)) {
-                System.out.println("Local Gitlet does not have that branch.");
+        }
+        CommitNode localHead = this.getBranchHead(branchName);
+        RemoteRepo remote = remoteOf(remoteName);
+        try {
+            sha2c.save(Collections.singletonList(localHead));
+            if (!remote.advertise()) {
+                System.out.println("No such remote.");
                 return;
             }
-            if (!remote.containsBranch(branchName)) {
-                remote.branch(branchName);
+            String remoteSHA = remote.getRefs().get(branchName);
+            if (remoteSHA != null && !remoteSHA.equals(localHead.getSHA())) {
+                CommitNode remoteHead = sha2c.get(remoteSHA);
+                if (remoteHead == null || !remoteHead.isInHistory(localHead)) {
+                    System.out.println("Please pull down remote changes before pushing.");
+                    return;
+                }
             }
-            CommitNode remoteHead = remote.getBranchHead(branchName);
-            CommitNode localHead = this.getBranchHead(branchName);
-            System.out.println("remotehead: " + remoteHead.getSHA());
-            System.out.println("localhead: " + localHead.getSHA());
-            if (!remoteHead.isInHistory(localHead)) {
-                System.out.println("Please pull down remote changes before pushing.");
-                return;
-            } else {
-                CommitNode startPoint = localHead;
-                while (!startPoint.equals(remoteHead)) {
-                    startPoint = startPoint.getPrev();
+            ArrayList<String> toPush = new ArrayList<String>();
+            for (CommitNode c = localHead; c != null && !remote.has(c.getSHA());
+                    c = c.getParent()) {
+                toPush.add(c.getSHA());
+            }
+            Collections.reverse(toPush);
+            remote.push(toPush, localHead.getSHA(), branchName, firstSHA, sha2c,
+                    new BlobStore(".gitlet"));
+        } catch (IOException e) {
+            System.out.println("Could not push to remote: " + e);
+        }
+    }
+
+    /**
+     * Fetches the branches of the given remote, or just branchName, for
+     * "fetch remoteName [branchName]", moving their remote-tracking refs.
+     */
+    public void fetch(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Usage: fetch remoteName [branchName]");
+            return;
+        }
+        fetchBranches(args[0], (args.length == 2) ? args[1] : null);
+    }
+
+    /**
+     * Fetches the branches of the given remote, or just branchName if it is
+     * not null, and moves their remote-tracking refs, remoteName/branch, to
+     * the remote's heads. A branch still at the head it was last fetched at
+     * costs nothing beyond the remote's state log; otherwise only the
+     * commits since are read. Fetching every branch also drops the refs of
+     * branches the remote no longer has. Returns false after printing an
+     * error.
+     */
+    private boolean fetchBranches(String remoteName, String branchName) {
+        if (!r2login.containsKey(remoteName)) {
+            System.out.println("No such remote.");
+            return false;
+        }
+        RemoteRepo remote = remoteOf(remoteName);
+        try {
+            if (!remote.advertise()) {
+                System.out.println("No such remote.");
+                return false;
+            }
+            HashMap<String, String> refs = remote.getRefs();
+            ArrayList<String> branches = new ArrayList<String>(refs.keySet());
+            if (branchName != null) {
+                if (!refs.containsKey(branchName)) {
+                    System.out.println("That remote does not have that branch.");
+                    return false;
                 }
-                while (!remoteHead.equals(localHead)) {
-                    startPoint = startPoint.next(branchName);
-                    remoteHead = remote.commitToBranch(branchName, remoteHead, startPoint, true);
+                branches = new ArrayList<String>(Collections.singletonList(branchName));
+            } else {
+                for (String name : new ArrayList<String>(tracking.keySet())) {
+                    if (name.startsWith(remoteName + "/")
+                            && !refs.containsKey(name.substring(remoteName.length() + 1))) {
+                        tracking.remove(name);
+                    }
                 }
-                try {
-                    File saveGitlet = new File("remoteWD/.gitlet/savedGitlet.ser");
-                    FileOutputStream fileOut = new FileOutputStream(saveGitlet);
-                    ObjectOutputStream objectOut = new ObjectOutputStream(fileOut);
-                    objectOut.writeObject(remote);
-                    objectOut.close();
-                    fileOut.close();
-                } catch (IOException e) {
-                    String msg = "IOException while saving remote gitlet state!";
-                    System.out.println(msg);
+            }
+            BlobStore store = new BlobStore(".gitlet");
+            for (String branch : branches) {
+                String sha = refs.get(branch);
+                String name = remoteName + "/" + branch;
+                if (sha.equals(tracking.get(name)) && sha2c.containsKey(sha)) {
+                    continue;
                 }
-                String a = runCommand("scp -r remoteWD/. " + r2login.get(remoteName) + ":"
-                        + r2loc.get(remoteName));
+                remote.fetch(remote.missingSince(sha, sha2c), sha2c, store);
+                tracking.put(name, sha);
             }
+        } catch (IOException e) {
+            System.out.println("Could not fetch from remote: " + e);
+            return false;
         }
-
+        return true;
     }
 
-    /** Pulls new commits of the given branch from the given remote. */
+    /**
+     * Pulls new commits of the given branch from the given remote: fetches
+     * the branch, then fast-forwards or merges the local branch to its
+     * remote-tracking ref.
+     */
     public void pull(String[] args) {
         String remoteName = args[0];
         String branchName = args[1];
-        Gitlet remote = getRemoteGitlet(remoteName);
-        System.out.println(remote == null);
-        if (!r2login.containsKey(remoteName) || remote == null) {
-            System.out.println("No such remote.");
-            return;
-        }
-        if (!remote.containsBranch(branchName)) {
-            System.out.println("That remote does not have that branch.");
+        if (!fetchBranches(remoteName, branchName)) {
             return;
         }
         if (!this.containsBranch(branchName)) {
             System.out.println("Local Gitlet does not have that branch.");
             return;
         }
-        CommitNode remoteHead = remote.getBranchHead(branchName);
+        String remoteSHA = tracking.get(remoteName + "/" + branchName);
+        CommitNode remoteHead = sha2c.get(remoteSHA);
         CommitNode localHead = this.getBranchHead(branchName);
         if (remoteHead.isInHistory(localHead) || remoteHead.equals(localHead)) {
             System.out.println("Already up-to-date.");
             return;
         }
         if (localHead.isInHistory(remoteHead)) {
-            CommitNode startPoint = remoteHead;
-            while (!startPoint.equals(localHead)) {
-                startPoint = startPoint.getPrev();
+            Stack<CommitNode> toPull = new Stack<CommitNode>();
+            for (CommitNode c = remoteHead; !c.equals(localHead); c = c.getPrev()) {
+                toPull.push(c);
             }
-            // System.out.println("Startpoint = localHead now.");
-            while (!localHead.equals(remoteHead)) {
-                startPoint = startPoint.next(branchName);
-                localHead = this.commitToBranch(branchName, localHead, startPoint, false);
+            while (!toPull.empty()) {
+                localHead = this.commitToBranch(branchName, localHead, toPull.pop());
             }
             // System.out.println("LocalHead = RemoteHead now.");
             this.resetSHA(localHead.getSHA());
@@ -963,76 +1429,148 @@ public class Gitlet implements Serializable {
                 while (!split2curr.empty()) {
                     startPoint = split2curr.pop();
                     if (startPoint != null) {
-                        localHead = this.commitToBranch(branchName, localHead, startPoint, false);
+                        localHead = this.commitToBranch(branchName, localHead, startPoint);
                     }
                 }
                 CommitNode changes = new CommitNode(localHead, branchName, origLocal.getMsg(),
                         origLocal.getNewFiles(), origLocal.getRmFiles(), null, false, false);
-                localHead = this.commitToBranch(branchName, localHead, changes, false);
+                localHead = this.commitToBranch(branchName, localHead, changes);
                 this.resetSHA(localHead.getSHA());
             }
         }
-        recursiveDelete(new File("./remoteWD"));
     }
 
     /**
      * Clones the Gitlet state into a folder called remoteName. Also copies
-     * snapshot of latest commits.
+     * snapshot of latest commits. Every branch of the remote is fetched into
+     * the new repository, which starts on the remote's current branch. With
+     * --depth N, only the N most recent commits of each branch are fetched,
+     * and the clone is shallow until deepened.
      */
-    public void clone(String remoteName) {
+    public void clone(String[] args) {
+        int depth = -1;
+        if (args.length == 3 && args[0].equals("--depth")) {
+            depth = parseDepth(args[1]);
+            if (depth < 0) {
+                return;
+            }
+            args = new String[] {args[2]};
+        }
+        if (args.length != 1) {
+            System.out.println("Usage: clone [--depth N] remoteName");
+            return;
+        }
+        String remoteName = args[0];
         if (!r2login.containsKey(remoteName)) {
             System.out.println("No such remote.");
             return;
         }
-        Gitlet remote = getRemoteGitlet(remoteName);
-        String a = runCommand("mkdir " + remoteName);
-        String b = runCommand("cp -r remoteWD/.gitlet/. " + remoteName + "/.gitlet");
-        if (remote != null) {
-            CommitNode remoteHead = remote.getHead();
-            String remoteSHA = remoteHead.getSHA();
-            String dirPath = "remoteWD/.gitlet/" + remoteSHA;
-            File dir = new File(dirPath);
-            for (File f : dir.listFiles()) {
-                runCommand("cp " + dirPath + "/" + f.getName() + " " + remoteName + "/"
-                        + f.getName());
+        String gitletDir = remoteName + "/.gitlet";
+        if (new File(gitletDir).exists()) {
+            System.out.println("A gitlet version control system already exists in "
+                    + remoteName + ".");
+            return;
+        }
+        RemoteRepo remote = remoteOf(remoteName);
+        try {
+            if (!remote.advertise()) {
+                System.out.println("No such remote.");
+                return;
+            }
+            new File(gitletDir).mkdirs();
+            CommitStore commits = new CommitStore(gitletDir);
+            BlobStore store = new BlobStore(gitletDir);
+            HashMap<String, String> refs = remote.getRefs();
+            for (String branch : refs.keySet()) {
+                remote.fetch(remote.missingFrom(refs.get(branch), commits, depth), commits,
+                        store);
+            }
+            StateLog log = new StateLog(gitletDir);
+            log.syncRoot(remote.getRoot());
+            log.moveRef(remote.getCurrName(), refs.get(remote.getCurrName()));
+            for (String branch : refs.keySet()) {
+                log.moveRef(branch, refs.get(branch));
             }
+            log.flush();
+            CommitNode remoteHead = commits.get(refs.get(remote.getCurrName()));
+            HashMap<Path, String> copies = new HashMap<Path, String>();
+            for (String filename : remoteHead.getAllFiles()) {
+                copies.put(Paths.get(remoteName + "/" + filename), remoteHead.blobOf(filename));
+            }
+            checkoutAll(store, copies);
+        } catch (IOException e) {
+            System.out.println("Could not clone remote: " + e);
         }
-        recursiveDelete(new File("./remoteWD"));
-
     }
 
     /**
-     * Returns true if THIS Gitlet contains branch with name branchName.
+     * Fetches the N commits before every shallow boundary of THIS from the
+     * given remote, for "deepen remoteName N". Boundaries that reach an
+     * initial commit, or a commit THIS has, stop being boundaries.
      */
-    public boolean containsBranch(String branchName) {
-        return this.b2h.containsKey(branchName);
+    public void deepen(String[] args) {
+        if (args.length != 2) {
+            System.out.println("Usage: deepen remoteName N");
+            return;
+        }
+        String remoteName = args[0];
+        int depth = parseDepth(args[1]);
+        if (depth < 0) {
+            return;
+        }
+        if (!r2login.containsKey(remoteName)) {
+            System.out.println("No such remote.");
+            return;
+        }
+        RemoteRepo remote = remoteOf(remoteName);
+        try {
+            if (sha2c.shallow().isEmpty()) {
+                System.out.println("Repository is not shallow.");
+                return;
+            }
+            if (!remote.advertise()) {
+                System.out.println("No such remote.");
+                return;
+            }
+            BlobStore store = new BlobStore(".gitlet");
+            for (String sha : new ArrayList<String>(sha2c.shallow())) {
+                String parent = sha2c.getHeader(sha).getParentSHA();
+                if (!sha2c.containsKey(parent) && remote.has(parent)) {
+                    remote.fetch(remote.missingFrom(parent, sha2c, depth), sha2c, store);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Could not fetch from remote: " + e);
+        }
+    }
+
+    /** Returns the depth given as value, or -1 after printing an error. */
+    private static int parseDepth(String value) {
+        int depth;
+        try {
+            depth = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            depth = 0;
+        }
+        if (depth <= 0) {
+            System.out.println("Invalid depth: " + value);
+            return -1;
+        }
+        return depth;
     }
 
     /**
-     * Returns the next commit node in THIS gitlet with the branchname. This is
-     * specially useful for the special case of pull, where you need the next
-     * commit from the remote gitlet. Note that the sha remains the same
-     * throughout, and you use this sha in sha2c to get the commmitNode within a
-     * specific gitlet.
+     * Returns true if THIS Gitlet contains branch with name branchName.
      */
-    public CommitNode nextInBranch(String sha, String branchName) {
-        if (sha2c.containsKey(sha)) {
-            return sha2c.get(sha).next(branchName);
-        }
-        return null;
+    public boolean containsBranch(String branchName) {
+        return this.b2h.containsKey(branchName);
     }
 
     /**
      * Add CommitNode c to branchname, whose current head in THIS Gitlet is
-     * currHead.
+     * currHead. The blobs of c must be in THIS already.
      */
-    public CommitNode commitToBranch(String branchName, CommitNode currHead, CommitNode c,
-            boolean isRemote) {
-        try {
-            c.makeFolder(isRemote);
-        } catch (IOException e) {
-            System.out.println("Commit exception " + e);
-        }
+    public CommitNode commitToBranch(String branchName, CommitNode currHead, CommitNode c) {
         Branch b = new Branch(c, branchName);
         Branch givenBranch = h2b.get(currHead).get(branchName);
         givenBranch.addSubranch(b);
@@ -1047,17 +1585,8 @@ public class Gitlet implements Serializable {
         }
         String sha = c.getSHA(); // SHA
         sha2c.put(sha, c); // SHA
-        id2c.put(commitID, c);
         // c.setID(this.commitID);
         this.commitID += 1;
-        String msg = c.getMsg();
-        if (msg2ids.containsKey(msg)) {
-            msg2ids.get(msg).add(sha);
-        } else {
-            HashSet<String> tempSet = new HashSet<String>(); // SHA
-            tempSet.add(sha);
-            msg2ids.put(msg, tempSet);
-        }
         this.head = c;
         return c;
 
@@ -1125,9 +1654,11 @@ public class Gitlet implements Serializable {
     /** Cleans up the stuff created during certain remote operations. */
     public void cleanUp(String command) {
         switch (command) {
+            case "fetch":
             case "pull":
             case "push":
             case "clone":
+            case "deepen":
                 recursiveDelete(new File("./remoteWD"));
                 break;
             default:
@@ -1135,6 +1666,33 @@ public class Gitlet implements Serializable {
         }
     }
 
+    /**
+     * Returns true if param holds as many operands as command needs. Commands
+     * taking a varying number check it themselves.
+     */
+    private static boolean hasOperands(String command, String[] param) {
+        switch (command) {
+            case "add":
+            case "rm":
+            case "branch":
+            case "rm-branch":
+            case "reset":
+            case "merge":
+            case "rebase":
+            case "i-rebase":
+            case "rm-remote":
+                return param.length >= 1;
+            case "push":
+            case "pull":
+                return param.length >= 2;
+            case "add-remote":
+                return param.length >= 2
+                        && (param[1].startsWith(FILE_SCHEME) || param.length >= 4);
+            default:
+                return true;
+        }
+    }
+
     /** Returns the length of the parameters if the commit command is called. */
     public static boolean paramLengthCommit(String[] param) {
         if (param.length < 1) {
@@ -1143,84 +1701,217 @@ public class Gitlet implements Serializable {
         return param.length == 1;
     }
 
-    /** Main function, dispatches tasks accordingly. */
-    public static void main(String[] args) {
-        Gitlet g = new Gitlet();
-        if (Gitlet.readSaved() != null) {
-            g = Gitlet.readSaved();
-        }
-        String command = args[0];
-        String[] param = new String[args.length - 1];
-        System.arraycopy(args, 1, param, 0, args.length - 1);
-        if (g.shouldProceed(command)) {
+    /**
+     * Runs command with its parameters against THIS, first asking whether to
+     * go on if it is dangerous, unless confirmed.
+     */
+    private void run(String command, String[] param, boolean confirmed) {
+        if (!hasOperands(command, param)) {
+            System.out.println("Incorrect operands.");
+        } else if (confirmed || shouldProceed(command)) {
             switch (command) {
                 case "init":
-                    g.initialize();
+                    initialize();
                     break;
                 case "add":
-                    g.addFile(param[0]);
+                    addFile(param[0]);
                     break;
                 case "commit":
                     if (paramLengthCommit(param)) {
-                        g.commit(param[0], false);
+                        commit(param[0], false);
                     }
                     break;
                 case "rm":
-                    g.removeFile(param[0]);
+                    removeFile(param[0]);
                     break;
                 case "log":
-                    g.log();
+                    log(param);
                     break;
                 case "global-log":
-                    g.globalLog();
+                    globalLog(param);
                     break;
                 case "find":
-                    g.find(param[0]);
+                    find(param);
                     break;
                 case "status":
-                    g.status();
+                    status();
                     break;
                 case "checkout":
-                    g.checkout(param);
+                    checkout(param);
                     break;
                 case "branch":
-                    g.branch(param[0]);
+                    branch(param[0]);
                     break;
                 case "rm-branch":
-                    g.removeBranch(param[0]);
+                    removeBranch(param[0]);
                     break;
                 case "reset":
-                    g.resetSHA(param[0]); // SHA
+                    resetSHA(param[0]); // SHA
                     break;
                 case "merge":
-                    g.merge(param[0]);
+                    merge(param[0]);
                     break;
                 case "rebase":
-                    g.rebaseStack(param[0], false);
+                    rebaseStack(param[0], false);
                     break;
                 case "i-rebase":
-                    g.rebaseStack(param[0], true);
+                    if (confirmed) {
+                        System.out.println("i-rebase cannot run in batch mode.");
+                    } else {
+                        rebaseStack(param[0], true);
+                    }
                     break;
                 case "add-remote":
-                    g.addRemote(param);
+                    addRemote(param);
                     break;
                 case "rm-remote":
-                    g.removeRemote(param[0]);
+                    removeRemote(param[0]);
+                    break;
+                case "fetch":
+                    fetch(param);
                     break;
                 case "pull":
-                    g.pull(param);
+                    pull(param);
                     break;
                 case "push":
-                    g.push(param);
+                    push(param);
                     break;
                 case "clone":
-                    g.clone(param[0]);
+                    clone(param);
+                    break;
+                case "deepen":
+                    deepen(param);
                     break;
                 default:
                     System.out.println("Invalid command.");
             }
         }
-        g.cleanUp(command);
-        Gitlet.save(g);
+        cleanUp(command);
+    }
+
+    /**
+     * Runs the commands in the file param[0], or on standard input if there
+     * is none or it is "-", one per line, against THIS in one process.
+     * Arguments are separated by spaces; one in double quotes may contain
+     * them, and \" and \\ inside the quotes stand for " and \. Blank lines
+     * and lines starting with # are ignored. Dangerous commands run without
+     * asking, and run reports and skips a line with too few operands. The
+     * state is saved at a line reading checkpoint and after the last
+     * command, even if one failed, and by init.
+     */
+    private void batch(String[] param) {
+        boolean fromStdin = param.length == 0 || param[0].equals("-");
+        try (BufferedReader br = new BufferedReader(fromStdin
+                ? new InputStreamReader(System.in) : new FileReader(param[0]))) {
+            int lineNumber = 0;
+            for (String line = br.readLine(); line != null; line = br.readLine()) {
+                lineNumber += 1;
+                ArrayList<String> words = splitCommand(line);
+                if (words == null) {
+                    System.out.println("Unterminated quote on line " + lineNumber + ".");
+                } else if (words.isEmpty() || words.get(0).startsWith("#")) {
+                    continue;
+                } else if (words.get(0).equals("checkpoint")) {
+                    Gitlet.save(this, ".gitlet");
+                } else if (words.get(0).equals("batch")) {
+                    System.out.println("batch cannot run in batch mode.");
+                } else {
+                    run(words.get(0), words.subList(1, words.size()).toArray(new String[0]),
+                            true);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Could not read batch commands: " + e);
+        } finally {
+            Gitlet.save(this, ".gitlet");
+        }
+    }
+
+    /**
+     * Returns the words of a batch line, as described for batch, or null if
+     * a quote is left open.
+     */
+    private static ArrayList<String> splitCommand(String line) {
+        ArrayList<String> words = new ArrayList<String>();
+        StringBuilder word = null;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted && c == '\\' && i + 1 < line.length()
+                    && (line.charAt(i + 1) == '"' || line.charAt(i + 1) == '\\')) {
+                i += 1;
+                word.append(line.charAt(i));
+            } else if (c == '"') {
+                quoted = !quoted;
+                if (word == null) {
+                    word = new StringBuilder();
+                }
+            } else if (!quoted && Character.isWhitespace(c)) {
+                if (word != null) {
+                    words.add(word.toString());
+                    word = null;
+                }
+            } else {
+                if (word == null) {
+                    word = new StringBuilder();
+                }
+                word.append(c);
+            }
+        }
+        if (quoted) {
+            return null;
+        }
+        if (word != null) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    /**
+     * Indexes the push packs waiting in .gitlet/incoming, for "receive-pack",
+     * which a pusher runs over ssh once its pack has arrived. Exits with
+     * status 1 if one was rejected or could not be read, so the push fails.
+     */
+    private static void receivePack() {
+        try {
+            if (!PushPack.receiveAll(".gitlet")) {
+                System.exit(1);
+            }
+        } catch (IOException e) {
+            System.out.println("Could not receive push: " + e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Main function, dispatches tasks accordingly. With batch, runs many
+     * commands in one process, saving the state once at the end.
+     */
+    public static void main(String[] args) {
+        if (args.length == 1 && args[0].equals("receive-pack")) {
+            receivePack();
+            return;
+        }
+        Gitlet g = new Gitlet();
+        try {
+            PushPack.receiveAll(".gitlet");
+            Gitlet saved = Gitlet.readSaved(".gitlet");
+            if (saved != null) {
+                g = saved;
+            }
+        } catch (IOException e) {
+            System.out.println("Could not read previous gitlet state!");
+            System.out.println(e);
+            System.exit(1);
+        }
+        String command = args[0];
+        String[] param = new String[args.length - 1];
+        System.arraycopy(args, 1, param, 0, args.length - 1);
+        if (command.equals("batch")) {
+            g.batch(param);
+            return;
+        }
+        g.run(command, param, false);
+        Gitlet.save(g, ".gitlet");
     }
 }
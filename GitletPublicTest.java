@@ -1,6 +1,8 @@
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
@@ -13,6 +15,10 @@ import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -38,6 +44,8 @@ import org.junit.Test;
 public class GitletPublicTest {
     private static final String GITLET_DIR = ".gitlet/";
     private static final String TESTING_DIR = "test_files/";
+    private static final String REMOTE_DIR = TESTING_DIR + "remote/";
+    private static final String CLONE_DIR = "origin/";
 
     /* matches either unix/mac or windows line separators */
     private static final String LINE_SEPARATOR = "\r\n|[\r\n]";
@@ -55,6 +63,10 @@ public class GitletPublicTest {
         if (f.exists()) {
             recursiveDelete(f);
         }
+        f = new File(CLONE_DIR);
+        if (f.exists()) {
+            recursiveDelete(f);
+        }
         f = new File(TESTING_DIR);
         if (f.exists()) {
             recursiveDelete(f);
@@ -115,6 +127,497 @@ public class GitletPublicTest {
 
     
 
+    /**
+     * Tests that find --regex still finds a message that skips an optional
+     * group once the trigram index covers the history, which takes more
+     * than 1024 commits, made here in one batch.
+     */
+    @Test
+    public void testFindRegexOptionalGroup() {
+        commitTickets("fix urgent ticket-42");
+        assertTrue(new File(GITLET_DIR + "messages.tri").exists());
+        String found = gitlet("find", "--regex", "fix (urgent )?ticket-42$");
+        assertEquals(2, found.trim().split(LINE_SEPARATOR).length);
+        assertEquals(1, gitlet("find", "--regex", "fix (urgent )+ticket-42$").trim()
+                .split(LINE_SEPARATOR).length);
+    }
+
+    /**
+     * Tests that find --regex finds messages through escapes longer than a
+     * backslash and one char, and escaped metacharacters, once the trigram
+     * index covers the history.
+     */
+    @Test
+    public void testFindRegexEscapes() {
+        commitTickets("release abc 1.5 (final)", "bell\u0007 rung");
+        String[] regexes = {"\\u0061bc 1", "\\x61bc", "\\0141bc", "\\x{61}bc", "\\p{Lower}bc 1",
+            "\\Qabc 1.5\\E", "abc 1\\.5 \\(final\\)", "\\sabc\\s1", "\\bfinal\\b",
+            "bell\\cG rung"};
+        for (String regex : regexes) {
+            String found = gitlet("find", "--regex", regex).trim();
+            assertEquals(regex, 1, found.split(LINE_SEPARATOR).length);
+            assertEquals(regex, 64, found.length());
+        }
+        assertEquals("Found no commit with that message.",
+                gitlet("find", "--regex", "abc 1\\.6").trim());
+    }
+
+    /**
+     * Makes 1100 commits with the messages "fix ticket-0" to
+     * "fix ticket-1099", then one commit with each of the extra messages, in
+     * one batch.
+     */
+    private static void commitTickets(String... extraMessages) {
+        StringBuilder script = new StringBuilder("init\n");
+        for (int i = 0; i < 1100; i++) {
+            String fileName = TESTING_DIR + "f" + i + ".txt";
+            createFile(fileName, "file " + i);
+            script.append("add " + fileName + "\ncommit \"fix ticket-" + i + "\"\n");
+        }
+        for (int i = 0; i < extraMessages.length; i++) {
+            String fileName = TESTING_DIR + "extra" + i + ".txt";
+            createFile(fileName, "extra " + i);
+            script.append("add " + fileName + "\ncommit \"" + extraMessages[i] + "\"\n");
+        }
+        String scriptName = TESTING_DIR + "script.txt";
+        createFile(scriptName, script.toString());
+        gitlet("batch", scriptName);
+    }
+
+    /**
+     * Tests that checkout and reset take any unique prefix of a commit id,
+     * and that a prefix of several commits lists at most ten of them. The
+     * 1100 commits are made in one batch, which puts them all in the sorted
+     * index of the commit graph.
+     */
+    @Test
+    public void testAbbreviatedIds() {
+        String scriptName = TESTING_DIR + "script.txt";
+        StringBuilder commits = new StringBuilder("init\n");
+        for (int i = 0; i < 1100; i++) {
+            String versionName = TESTING_DIR + "v" + i + ".txt";
+            createFile(versionName, "version " + i);
+            commits.append("add " + versionName + "\ncommit v" + i + "\n");
+        }
+        createFile(scriptName, commits.toString());
+        gitlet("batch", scriptName);
+        String[] shas = extractCommitSHAs(gitlet("log"));
+        assertEquals(1101, shas.length);
+        String v7 = shas[shas.length - 9];
+
+        recursiveDelete(new File(TESTING_DIR + "v7.txt"));
+        gitlet("checkout", v7.substring(0, 10), TESTING_DIR + "v7.txt");
+        assertEquals("version 7", getText(TESTING_DIR + "v7.txt"));
+        gitlet("reset", v7.substring(0, 10));
+        assertEquals(v7, extractCommitSHAs(gitlet("log"))[0]);
+        gitlet("reset", shas[0].substring(0, 10));
+        assertEquals(shas[0], extractCommitSHAs(gitlet("log"))[0]);
+
+        HashMap<String, Integer> counts = new HashMap<String, Integer>();
+        for (String sha : shas) {
+            for (int len = 1; len <= 4; len++) {
+                String prefix = sha.substring(0, len);
+                counts.put(prefix, counts.getOrDefault(prefix, 0) + 1);
+            }
+        }
+        String many = null, two = null;
+        for (String prefix : counts.keySet()) {
+            if (prefix.length() == 1 && counts.get(prefix) > 10) {
+                many = prefix;
+            } else if (prefix.length() == 3 && counts.get(prefix) == 2) {
+                two = prefix;
+            }
+        }
+        String output = gitlet("checkout", many, TESTING_DIR + "v7.txt");
+        String[] lines = output.substring(output.indexOf("Ambiguous")).split(LINE_SEPARATOR);
+        assertEquals("Ambiguous commit id " + many + "; it could be:", lines[0]);
+        assertEquals(12, lines.length);
+        for (int i = 1; i <= 10; i++) {
+            assertTrue(lines[i].startsWith(many) && lines[i].length() == 64);
+        }
+        assertEquals("...", lines[11]);
+        output = gitlet("reset", two);
+        lines = output.substring(output.indexOf("Ambiguous")).split(LINE_SEPARATOR);
+        assertEquals(3, lines.length);
+        assertEquals("Ambiguous commit id " + two + "; it could be:", lines[0]);
+        assertTrue(lines[1].startsWith(two) && lines[2].startsWith(two));
+
+        String none = "0000";
+        for (int i = 0; counts.containsKey(none); i++) {
+            none = String.format("%04x", i);
+        }
+        assertTrue(gitlet("checkout", none, TESTING_DIR + "v7.txt").trim()
+                .endsWith("No commit with that id exists."));
+    }
+
+    /**
+     * Tests that commits pushed to a remote are pulled into a repository
+     * that lacks them, fast-forwarding its branch and its files.
+     */
+    @Test
+    public void testPushPullRoundTrip() {
+        gitlet("init");
+        String fileName = TESTING_DIR + "f.txt";
+        commitFile(fileName, "v1", "v1");
+        makeRemote();
+        copyTree(new File(GITLET_DIR), new File(TESTING_DIR + "behind/" + GITLET_DIR));
+        commitFile(fileName, "v2", "v2");
+        commitFile(fileName, "v3", "v3");
+        gitlet("push", "origin", "master");
+
+        swapRepo(TESTING_DIR + "behind/");
+        writeFile(fileName, "v1");
+        gitlet("pull", "origin", "master");
+        assertArrayEquals(new String[] {"v3", "v2", "v1", "initial commit"},
+                extractCommitMessages(gitlet("log")));
+        assertEquals("v3", getText(fileName));
+        assertTrue(gitlet("pull", "origin", "master").trim().endsWith("Already up-to-date."));
+    }
+
+    /**
+     * Tests that a push is refused while the remote branch has commits the
+     * local one lacks, and goes through once they are pulled.
+     */
+    @Test
+    public void testPushBehindRemote() {
+        gitlet("init");
+        String fileName = TESTING_DIR + "f.txt";
+        String otherName = TESTING_DIR + "g.txt";
+        commitFile(fileName, "v1", "v1");
+        makeRemote();
+        swapRepo(REMOTE_DIR);
+        commitFile(fileName, "v2", "remote v2");
+        swapRepo(REMOTE_DIR);
+        writeFile(fileName, "v1");
+        commitFile(otherName, "g", "local g");
+        assertEquals("Please pull down remote changes before pushing.",
+                gitlet("push", "origin", "master").trim());
+
+        gitlet("pull", "origin", "master");
+        assertEquals("v2", getText(fileName));
+        assertEquals("g", getText(otherName));
+        gitlet("push", "origin", "master");
+        String[] local = extractCommitSHAs(gitlet("log"));
+        swapRepo(REMOTE_DIR);
+        assertArrayEquals(local, extractCommitSHAs(gitlet("log")));
+        swapRepo(REMOTE_DIR);
+    }
+
+    /**
+     * Tests that a remote in a directory without gitlet state is refused,
+     * and that a remote on localhost is read in place like a file:// one.
+     */
+    @Test
+    public void testLocalRemotes() {
+        gitlet("init");
+        String fileName = TESTING_DIR + "f.txt";
+        commitFile(fileName, "v1", "v1");
+        new File(REMOTE_DIR).mkdirs();
+        gitlet("add-remote", "empty", "file://" + new File(REMOTE_DIR).getAbsolutePath());
+        assertTrue(gitlet("push", "empty", "master").trim().endsWith("No such remote."));
+        assertEquals("No such remote.", gitlet("fetch", "empty").trim());
+        assertEquals(0, new File(REMOTE_DIR).list().length);
+
+        makeRemote();
+        commitFile(fileName, "v2", "v2");
+        gitlet("add-remote", "up", "me", "localhost", new File(REMOTE_DIR).getAbsolutePath());
+        gitlet("push", "up", "master");
+        String[] local = extractCommitSHAs(gitlet("log"));
+        swapRepo(REMOTE_DIR);
+        assertArrayEquals(local, extractCommitSHAs(gitlet("log")));
+        swapRepo(REMOTE_DIR);
+    }
+
+    /**
+     * Tests that a push is applied on the remote as it is sent, leaving no
+     * pack waiting there, that a clone of the remote gets its files, and
+     * that a pack made against a head the remote has moved on from is
+     * refused.
+     */
+    @Test
+    public void testPushPackApplied() throws IOException {
+        gitlet("init");
+        String fileName = TESTING_DIR + "f.txt";
+        String otherName = TESTING_DIR + "g.txt";
+        commitFile(fileName, "v1", "v1");
+        makeRemote();
+        String v1 = extractCommitSHAs(gitlet("log"))[0];
+        commitFile(fileName, "v2", "v2");
+        commitFile(otherName, "g", "g");
+        gitlet("push", "origin", "master");
+        assertFalse(new File(REMOTE_DIR + GITLET_DIR + "incoming").exists());
+
+        String[] pushed = extractCommitSHAs(gitlet("log"));
+        commitFile(fileName, "v3", "v3");
+        String v3 = extractCommitSHAs(gitlet("log"))[0];
+        PushPack.write(REMOTE_DIR + GITLET_DIR, "master", v1, v3, pushed[pushed.length - 1],
+                new ArrayList<String>(), new BlobStore(GITLET_DIR),
+                new ArrayList<String>(), new CommitStore(GITLET_DIR));
+        assertFalse(PushPack.receiveAll(REMOTE_DIR + GITLET_DIR));
+
+        recursiveDelete(new File(GITLET_DIR));
+        gitlet("init");
+        gitlet("add-remote", "origin", "file://" + new File(REMOTE_DIR).getAbsolutePath());
+        gitlet("clone", "origin");
+        assertEquals("v2", getText(CLONE_DIR + fileName));
+        assertEquals("g", getText(CLONE_DIR + otherName));
+        swapRepo(CLONE_DIR);
+        assertArrayEquals(pushed, extractCommitSHAs(gitlet("log")));
+    }
+
+    /**
+     * Tests that a shallow clone holds only the commits it was asked for,
+     * that merge and rebase stop at a split point beyond them, and that they
+     * go through once the clone is deepened.
+     */
+    @Test
+    public void testShallowClone() {
+        gitlet("init");
+        String fileName = TESTING_DIR + "f.txt";
+        String sideName = TESTING_DIR + "s.txt";
+        for (int i = 1; i <= 3; i++) {
+            commitFile(fileName, "v" + i, "v" + i);
+        }
+        gitlet("branch", "side");
+        gitlet("checkout", "side");
+        commitFile(sideName, "s", "s1");
+        gitlet("checkout", "master");
+        for (int i = 4; i <= 8; i++) {
+            commitFile(fileName, "v" + i, "v" + i);
+        }
+        makeRemote();
+
+        recursiveDelete(new File(GITLET_DIR));
+        gitlet("init");
+        gitlet("add-remote", "origin", "file://" + new File(REMOTE_DIR).getAbsolutePath());
+        gitlet("clone", "--depth", "3", "origin");
+        assertEquals("v8", getText(CLONE_DIR + fileName));
+        swapRepo(CLONE_DIR);
+        assertArrayEquals(new String[] {"v8", "v7", "v6"}, extractCommitMessages(gitlet("log")));
+        String shallow = "The split point is not in this shallow clone;"
+                + " run deepen remoteName N first.";
+        assertTrue(gitlet("merge", "side").trim().endsWith(shallow));
+        assertTrue(gitlet("rebase", "side").trim().endsWith(shallow));
+
+        gitlet("add-remote", "origin", "file://" + new File(REMOTE_DIR).getAbsolutePath());
+        gitlet("deepen", "origin", "100");
+        assertEquals(9, extractCommitMessages(gitlet("log")).length);
+        assertEquals("Repository is not shallow.", gitlet("deepen", "origin", "1").trim());
+        recursiveDelete(new File(sideName));
+        gitlet("merge", "side");
+        assertEquals("s", getText(sideName));
+        assertEquals("v8", getText(fileName));
+    }
+
+    /**
+     * Tests that fetch moves remote-tracking refs to the remote's heads,
+     * again after the remote moves on, without moving local branches, and
+     * drops the refs of branches the remote no longer has.
+     */
+    @Test
+    public void testTrackingRefs() throws IOException {
+        gitlet("init");
+        String fileName = TESTING_DIR + "f.txt";
+        commitFile(fileName, "v1", "v1");
+        makeRemote();
+        String v1 = extractCommitSHAs(gitlet("log"))[0];
+        assertEquals("That remote does not have that branch.",
+                gitlet("fetch", "origin", "side").trim());
+        gitlet("fetch", "origin");
+        assertEquals(v1, trackingRefs().get("origin/master"));
+
+        swapRepo(REMOTE_DIR);
+        commitFile(fileName, "v2", "v2");
+        commitFile(fileName, "v3", "v3");
+        gitlet("branch", "side");
+        String v3 = extractCommitSHAs(gitlet("log"))[0];
+        swapRepo(REMOTE_DIR);
+        writeFile(fileName, "v1");
+        gitlet("fetch", "origin", "master");
+        assertEquals(v3, trackingRefs().get("origin/master"));
+        assertFalse(trackingRefs().containsKey("origin/side"));
+        assertEquals(v1, extractCommitSHAs(gitlet("log"))[0]);
+        gitlet("checkout", v3, fileName);
+        assertEquals("v3", getText(fileName));
+        gitlet("fetch", "origin");
+        assertEquals(v3, trackingRefs().get("origin/side"));
+
+        swapRepo(REMOTE_DIR);
+        gitlet("rm-branch", "side");
+        swapRepo(REMOTE_DIR);
+        gitlet("fetch", "origin");
+        assertFalse(trackingRefs().containsKey("origin/side"));
+        assertEquals(v3, trackingRefs().get("origin/master"));
+    }
+
+    /** Returns the remote-tracking refs of the working directory's repository. */
+    private static HashMap<String, String> trackingRefs() throws IOException {
+        StateLog log = new StateLog(GITLET_DIR);
+        log.load();
+        return log.getTracking();
+    }
+
+    /**
+     * Tests that commits are read from the commit store as they are asked
+     * for: one only a deleted branch held can be damaged without the other
+     * commands noticing, and a new store reads any commit by its SHA.
+     */
+    @Test
+    public void testCommitsReadOnDemand() {
+        gitlet("init");
+        String fileName = TESTING_DIR + "f.txt";
+        commitFile(fileName, "v1", "v1");
+        gitlet("branch", "old");
+        gitlet("checkout", "old");
+        commitFile(fileName, "old", "old");
+        String old = extractCommitSHAs(gitlet("log"))[0];
+        gitlet("checkout", "master");
+        gitlet("rm-branch", "old");
+        writeFile(GITLET_DIR + CommitStore.pathOf(old), "damaged");
+
+        commitFile(fileName, "v2", "v2");
+        String output = gitlet("log") + gitlet("status") + gitlet("checkout", fileName);
+        assertFalse(output.contains("Could not read commit"));
+        assertTrue(gitlet("checkout", old, fileName).contains("Could not read commit " + old));
+
+        String[] shas = extractCommitSHAs(gitlet("log"));
+        CommitStore store = new CommitStore(GITLET_DIR);
+        CommitNode head = store.get(shas[0]);
+        assertEquals("v2", head.getMsg());
+        assertEquals(shas[1], head.getParent().getSHA());
+        assertTrue(head.getAllFiles().contains(fileName));
+        assertEquals("v1", store.getHeader(shas[1]).getMsg());
+        assertNull(store.get(shas[0].substring(0, 10)));
+    }
+
+    /**
+     * Tests that log and global-log print the page of entries -n and --skip
+     * ask for, within the dates --since and --until give, one line each with
+     * --oneline, and reject bad option values.
+     */
+    @Test
+    public void testLogPaging() {
+        StringBuilder script = new StringBuilder("init\n");
+        for (int i = 0; i < 10; i++) {
+            String fileName = TESTING_DIR + "f" + i + ".txt";
+            createFile(fileName, "file " + i);
+            script.append("add " + fileName + "\ncommit m" + i + "\n");
+        }
+        createFile(TESTING_DIR + "script.txt", script.toString());
+        gitlet("batch", TESTING_DIR + "script.txt");
+        String log = gitlet("log");
+        String[] shas = extractCommitSHAs(log);
+        assertEquals(11, shas.length);
+
+        assertArrayEquals(new String[] {"m9", "m8", "m7"},
+                extractCommitMessages(gitlet("log", "-n", "3")));
+        assertArrayEquals(new String[] {"m7", "m6", "m5"},
+                extractCommitMessages(gitlet("log", "--skip", "2", "-n", "3")));
+        assertArrayEquals(new String[] {"m0", "initial commit"},
+                extractCommitMessages(gitlet("log", "--skip", "9")));
+        assertEquals(0, extractCommitMessages(gitlet("log", "--skip", "11")).length);
+        String[] lines = gitlet("log", "--oneline", "--skip", "1", "-n", "2").trim()
+                .split(LINE_SEPARATOR);
+        assertArrayEquals(new String[] {shas[1].substring(0, 12) + " m8",
+            shas[2].substring(0, 12) + " m7"}, lines);
+        assertEquals(2, gitlet("global-log", "--oneline", "-n", "2").trim()
+                .split(LINE_SEPARATOR).length);
+
+        String today = log.split("====")[1].split(LINE_SEPARATOR)[2].substring(0, 10);
+        assertEquals(11, extractCommitMessages(gitlet("log", "--since", today)).length);
+        assertEquals(11, extractCommitMessages(gitlet("log", "--until", today)).length);
+        assertEquals("", gitlet("log", "--until", "2000-01-01").trim());
+        assertEquals("", gitlet("global-log", "--since", "2999-01-01").trim());
+        assertArrayEquals(new String[] {"m9"},
+                extractCommitMessages(gitlet("log", "--since", "2000-01-01", "-n", "1")));
+
+        assertEquals("Invalid count: x", gitlet("log", "-n", "x").trim());
+        assertEquals("Invalid date: soon", gitlet("log", "--until", "soon").trim());
+        assertEquals("Missing value for --skip.", gitlet("log", "--skip").trim());
+        assertEquals("Invalid log option: -x", gitlet("global-log", "-x").trim());
+    }
+
+    /**
+     * Tests that batch reports a bad line, skips it and runs the lines after
+     * it, and that "batch -" reads its commands from standard input.
+     */
+    @Test
+    public void testBatchBadLines() {
+        String f1 = TESTING_DIR + "f1.txt";
+        String f2 = TESTING_DIR + "f2.txt";
+        String f3 = TESTING_DIR + "f3.txt";
+        createFile(f1, "one");
+        createFile(f2, "two");
+        createFile(f3, "three");
+        String script = "init\n# a comment\n\nadd " + f1 + "\ncommit \"first commit\"\n"
+                + "add\ncommit \"unterminated\nfrobnicate\nbatch other.txt\n"
+                + "add " + f2 + "\ncommit \"second \\\"quoted\\\" one\"\n";
+        createFile(TESTING_DIR + "script.txt", script);
+        String output = gitlet("batch", TESTING_DIR + "script.txt");
+        assertTrue(output.contains("Incorrect operands."));
+        assertTrue(output.contains("Unterminated quote on line 7."));
+        assertTrue(output.contains("Invalid command."));
+        assertTrue(output.contains("batch cannot run in batch mode."));
+        assertFalse(output.contains("Warning"));
+        assertArrayEquals(new String[] {"second \"quoted\" one", "first commit",
+            "initial commit"}, extractCommitMessages(gitlet("log")));
+
+        gitletWithInput("add " + f3 + "\ncommit third\n", "batch", "-");
+        assertArrayEquals(new String[] {"third", "second \"quoted\" one", "first commit",
+            "initial commit"}, extractCommitMessages(gitlet("log")));
+    }
+
+    /**
+     * Tests that status lists files modified or deleted since the head commit
+     * and files it does not track, in subdirectories too, and lists the same
+     * whatever number of threads scans the working directory.
+     */
+    @Test
+    public void testStatusSections() {
+        gitlet("init");
+        String[] names = {"a.txt", "b.txt", "c.txt", "same.txt", "d/e.txt", "d/f/g.txt"};
+        for (String name : names) {
+            new File(TESTING_DIR + name).getParentFile().mkdirs();
+            createFile(TESTING_DIR + name, name);
+            gitlet("add", TESTING_DIR + name);
+        }
+        gitlet("commit", "base");
+        writeFile(TESTING_DIR + "a.txt", "changed");
+        writeFile(TESTING_DIR + "d/f/g.txt", "changed");
+        writeFile(TESTING_DIR + "same.txt", "same.txt");
+        recursiveDelete(new File(TESTING_DIR + "b.txt"));
+        recursiveDelete(new File(TESTING_DIR + "d/e.txt"));
+        createFile(TESTING_DIR + "new.txt", "new");
+        new File(TESTING_DIR + "u/v").mkdirs();
+        createFile(TESTING_DIR + "u/v/w.txt", "w");
+        createFile(TESTING_DIR + "staged.txt", "staged");
+        gitlet("add", TESTING_DIR + "staged.txt");
+
+        for (String threads : new String[] {"1", "4"}) {
+            createFile(GITLET_DIR + "config", "status.threads=" + threads + "\n");
+            String status = gitlet("status");
+            assertEquals(new HashSet<String>(Arrays.asList(TESTING_DIR + "staged.txt")),
+                    statusSection(status, "Staged Files"));
+            assertEquals(new HashSet<String>(Arrays.asList(TESTING_DIR + "a.txt (modified)",
+                    TESTING_DIR + "d/f/g.txt (modified)", TESTING_DIR + "b.txt (deleted)",
+                    TESTING_DIR + "d/e.txt (deleted)")),
+                    statusSection(status, "Modifications Not Staged For Commit"));
+            assertEquals(new HashSet<String>(Arrays.asList(TESTING_DIR + "new.txt",
+                    TESTING_DIR + "u/v/w.txt")), statusSection(status, "Untracked Files"));
+        }
+    }
+
+    /** Returns the lines of the section of status output under header. */
+    private static HashSet<String> statusSection(String status, String header) {
+        String[] lines = status.split(LINE_SEPARATOR);
+        HashSet<String> section = new HashSet<String>();
+        int i = Arrays.asList(lines).indexOf("=== " + header + " ===") + 1;
+        for (; i > 0 && i < lines.length && !lines[i].isEmpty(); i++) {
+            section.add(lines[i]);
+        }
+        return section;
+    }
+
     /**
      * Convenience method for calling Gitlet's main. Anything that is printed
      * out during this call to main will NOT actually be printed out, but will
@@ -127,6 +630,14 @@ public class GitletPublicTest {
      * arguments, which are packaged into a String[].
      */
     private static String gitlet(String... args) {
+        return gitletWithInput("yes", args);
+    }
+
+    /**
+     * Calls Gitlet's main as gitlet does, but with input on System.in rather
+     * than a 'yes' answer.
+     */
+    private static String gitletWithInput(String input, String... args) {
         PrintStream originalOut = System.out;
         InputStream originalIn = System.in;
         ByteArrayOutputStream printingResults = new ByteArrayOutputStream();
@@ -139,12 +650,11 @@ public class GitletPublicTest {
             System.setOut(new PrintStream(printingResults));
 
             /*
-             * Prepares the answer "yes" on System.In, to pretend as if a user
-             * will type "yes". You won't be able to take user input during this
-             * time.
+             * Prepares the input, the answer "yes" when called through
+             * gitlet, on System.In, to pretend as if a user will type it. You
+             * won't be able to take user input during this time.
              */
-            String answer = "yes";
-            InputStream is = new ByteArrayInputStream(answer.getBytes());
+            InputStream is = new ByteArrayInputStream(input.getBytes());
             System.setIn(is);
 
             /* Calls the main method using the input arguments. */
@@ -210,6 +720,50 @@ public class GitletPublicTest {
         }
     }
 
+    /** Writes fileText to fileName, then adds and commits it with message msg. */
+    private static void commitFile(String fileName, String fileText, String msg) {
+        createFile(fileName, fileText);
+        gitlet("add", fileName);
+        gitlet("commit", msg);
+    }
+
+    /**
+     * Copies the gitlet state of the working directory to REMOTE_DIR, then
+     * adds that as the file:// remote origin.
+     */
+    private static void makeRemote() {
+        copyTree(new File(GITLET_DIR), new File(REMOTE_DIR + GITLET_DIR));
+        gitlet("add-remote", "origin", "file://" + new File(REMOTE_DIR).getAbsolutePath());
+    }
+
+    /**
+     * Swaps the gitlet state of the working directory with that in dir, so
+     * the next commands run on the repository in dir. Swapping again swaps
+     * it back.
+     */
+    private static void swapRepo(String dir) {
+        File here = new File(GITLET_DIR);
+        File there = new File(dir + GITLET_DIR);
+        File swap = new File(TESTING_DIR + "swap");
+        assertTrue(here.renameTo(swap) && there.renameTo(here) && swap.renameTo(there));
+    }
+
+    /** Copies the file or directory from, and all files inside it, to to. */
+    private static void copyTree(File from, File to) {
+        if (from.isDirectory()) {
+            to.mkdirs();
+            for (File f : from.listFiles()) {
+                copyTree(f, new File(to, f.getName()));
+            }
+            return;
+        }
+        try {
+            Files.copy(from.toPath(), to.toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Deletes the file and all files inside it, if it is a directory.
      */
@@ -237,4 +791,15 @@ public class GitletPublicTest {
         }
         return messages;
     }
+
+    /** Returns the commit SHAs that log has printed out, in order. */
+    private static String[] extractCommitSHAs(String logOutput) {
+        String[] logChunks = logOutput.split("====");
+        String[] shas = new String[logChunks.length - 1];
+        for (int i = 0; i < shas.length; i++) {
+            String header = logChunks[i + 1].split(LINE_SEPARATOR)[1];
+            shas[i] = header.substring("Commit ".length(), header.length() - 1);
+        }
+        return shas;
+    }
 }
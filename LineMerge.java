@@ -0,0 +1,296 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Three-way line merge of two versions of a file, current and given, that
+ * both changed since their common base. Each version is kept as its bytes
+ * plus the offset and hash of every line, never as a list of Strings.
+ *
+ * The base is diffed against each version with Myers' algorithm in its
+ * linear-space form: the middle snake of the edit graph is found by
+ * searching forward and backward at once, and the halves on either side of
+ * it are diffed recursively, so memory stays proportional to the number of
+ * lines. The two diffs are then walked together, as diff3 does: runs of
+ * base lines both versions kept are stable; between them, a region only one
+ * side changed takes that side's lines, a region both changed alike takes
+ * either, and a region they changed differently is a conflict, written
+ * between markers.
+ */
+public class LineMerge {
+    private static final byte[] START = "<<<<<<< ".getBytes(UTF_8);
+    private static final byte[] MIDDLE = "=======\n".getBytes(UTF_8);
+    private static final byte[] END = ">>>>>>> ".getBytes(UTF_8);
+    /** Bytes looked at by isText. */
+    private static final int TEXT_PROBE = 8192;
+
+    /** The lines of a file: line i is data[starts[i]] up to data[starts[i + 1]]. */
+    private static class Lines {
+        private byte[] data;
+        private int[] starts;
+        private int[] hashes;
+        private int size;
+
+        /** Splits data after every newline, and after its last byte. */
+        Lines(byte[] data) {
+            this.data = data;
+            int count = 0;
+            for (byte b : data) {
+                if (b == '\n') {
+                    count += 1;
+                }
+            }
+            if (data.length > 0 && data[data.length - 1] != '\n') {
+                count += 1;
+            }
+            size = count;
+            starts = new int[count + 1];
+            hashes = new int[count];
+            int line = 0;
+            int h = 0;
+            for (int i = 0; i < data.length; i++) {
+                h = 31 * h + data[i];
+                if (data[i] == '\n' || i == data.length - 1) {
+                    hashes[line] = h;
+                    line += 1;
+                    starts[line] = i + 1;
+                    h = 0;
+                }
+            }
+        }
+
+        /** Returns true if line i of THIS equals line j of other. */
+        boolean lineEquals(int i, Lines other, int j) {
+            if (hashes[i] != other.hashes[j]) {
+                return false;
+            }
+            int len = starts[i + 1] - starts[i];
+            if (len != other.starts[j + 1] - other.starts[j]) {
+                return false;
+            }
+            return Arrays.equals(data, starts[i], starts[i] + len,
+                    other.data, other.starts[j], other.starts[j] + len);
+        }
+
+        /** Returns true if lines from up to to of THIS equal those of other from oFrom. */
+        boolean rangeEquals(int from, int to, Lines other, int oFrom, int oTo) {
+            if (to - from != oTo - oFrom) {
+                return false;
+            }
+            for (int i = 0; i < to - from; i++) {
+                if (!lineEquals(from + i, other, oFrom + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Writes lines from up to to to out, ending the last with a newline
+         * if it has none and newline is true.
+         */
+        void write(int from, int to, OutputStream out, boolean newline) throws IOException {
+            if (from == to) {
+                return;
+            }
+            out.write(data, starts[from], starts[to] - starts[from]);
+            if (newline && data[starts[to] - 1] != '\n') {
+                out.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Returns true if contents look like text: no NUL byte among its first
+     * TEXT_PROBE bytes.
+     */
+    public static boolean isText(byte[] contents) {
+        for (int i = 0; i < Math.min(contents.length, TEXT_PROBE); i++) {
+            if (contents[i] == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the three-way merge of current and given, with base their
+     * common version, to out. Conflicting regions are marked with the names
+     * currName and givenName. Returns true if nothing conflicted.
+     */
+    public static boolean merge(byte[] base, byte[] current, byte[] given, OutputStream out,
+            String currName, String givenName) throws IOException {
+        Lines o = new Lines(base);
+        Lines a = new Lines(current);
+        Lines b = new Lines(given);
+        int[] toA = diff(o, a);
+        int[] toB = diff(o, b);
+        boolean clean = true;
+        int i = 0, j = 0, k = 0;
+        while (true) {
+            int stable = 0;
+            while (i + stable < o.size && toA[i + stable] == j + stable
+                    && toB[i + stable] == k + stable) {
+                stable += 1;
+            }
+            if (stable > 0) {
+                o.write(i, i + stable, out, false);
+                i += stable;
+                j += stable;
+                k += stable;
+                continue;
+            }
+            int i2 = i;
+            while (i2 < o.size && (toA[i2] < 0 || toB[i2] < 0)) {
+                i2 += 1;
+            }
+            int j2 = (i2 == o.size) ? a.size : toA[i2];
+            int k2 = (i2 == o.size) ? b.size : toB[i2];
+            if (i2 == i && j2 == j && k2 == k) {
+                return clean;
+            }
+            if (o.rangeEquals(i, i2, a, j, j2)) {
+                b.write(k, k2, out, false);
+            } else if (o.rangeEquals(i, i2, b, k, k2) || a.rangeEquals(j, j2, b, k, k2)) {
+                a.write(j, j2, out, false);
+            } else {
+                clean = false;
+                out.write(START);
+                out.write((currName + "\n").getBytes(UTF_8));
+                a.write(j, j2, out, true);
+                out.write(MIDDLE);
+                b.write(k, k2, out, true);
+                out.write(END);
+                out.write((givenName + "\n").getBytes(UTF_8));
+            }
+            i = i2;
+            j = j2;
+            k = k2;
+        }
+    }
+
+    /**
+     * Returns, for every line of x, the index of the line of y it is
+     * matched with in a shortest edit script from x to y, or -1 if it is
+     * deleted. Matched indexes increase with the lines of x.
+     */
+    private static int[] diff(Lines x, Lines y) {
+        int[] match = new int[x.size];
+        Arrays.fill(match, -1);
+        compare(x, 0, x.size, y, 0, y.size, match);
+        return match;
+    }
+
+    /**
+     * Matches lines xLo up to xHi of x with lines yLo up to yHi of y: after
+     * taking off the lines the two ranges start and end with in common,
+     * splits them at the middle snake and matches each half.
+     */
+    private static void compare(Lines x, int xLo, int xHi, Lines y, int yLo, int yHi,
+            int[] match) {
+        while (xLo < xHi && yLo < yHi && x.lineEquals(xLo, y, yLo)) {
+            match[xLo] = yLo;
+            xLo += 1;
+            yLo += 1;
+        }
+        while (xLo < xHi && yLo < yHi && x.lineEquals(xHi - 1, y, yHi - 1)) {
+            match[xHi - 1] = yHi - 1;
+            xHi -= 1;
+            yHi -= 1;
+        }
+        if (xLo == xHi || yLo == yHi) {
+            return;
+        }
+        int[] mid = middleSnake(x, xLo, xHi, y, yLo, yHi);
+        if (mid == null || (mid[0] == xLo && mid[1] == yLo) || (mid[0] == xHi && mid[1] == yHi)) {
+            return;
+        }
+        compare(x, xLo, mid[0], y, yLo, mid[1], match);
+        compare(x, mid[0], xHi, y, mid[1], yHi, match);
+    }
+
+    /**
+     * Returns the point {x index, y index} where a shortest path through the
+     * edit graph of the two ranges crosses its middle, found by extending
+     * furthest-reaching paths from both corners until they overlap, or null
+     * if the ranges share no line. Only two arrays of one int per diagonal
+     * are kept.
+     */
+    private static int[] middleSnake(Lines x, int xLo, int xHi, Lines y, int yLo, int yHi) {
+        int n = xHi - xLo;
+        int m = yHi - yLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        int length = 2 * maxD + 2;
+        int[] forward = new int[length];
+        int[] backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        boolean odd = (delta % 2) != 0;
+        int k1Start = 0, k1End = 0, k2Start = 0, k2End = 0;
+        for (int d = 0; d < maxD; d++) {
+            for (int k1 = -d + k1Start; k1 <= d - k1End; k1 += 2) {
+                int k1Offset = offset + k1;
+                int x1;
+                if (k1 == -d || (k1 != d && forward[k1Offset - 1] < forward[k1Offset + 1])) {
+                    x1 = forward[k1Offset + 1];
+                } else {
+                    x1 = forward[k1Offset - 1] + 1;
+                }
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && x.lineEquals(xLo + x1, y, yLo + y1)) {
+                    x1 += 1;
+                    y1 += 1;
+                }
+                forward[k1Offset] = x1;
+                if (x1 > n) {
+                    k1End += 2;
+                } else if (y1 > m) {
+                    k1Start += 2;
+                } else if (odd) {
+                    int k2Offset = offset + delta - k1;
+                    if (k2Offset >= 0 && k2Offset < length && backward[k2Offset] != -1
+                            && x1 >= n - backward[k2Offset]) {
+                        return new int[] {xLo + x1, yLo + y1};
+                    }
+                }
+            }
+            for (int k2 = -d + k2Start; k2 <= d - k2End; k2 += 2) {
+                int k2Offset = offset + k2;
+                int x2;
+                if (k2 == -d || (k2 != d && backward[k2Offset - 1] < backward[k2Offset + 1])) {
+                    x2 = backward[k2Offset + 1];
+                } else {
+                    x2 = backward[k2Offset - 1] + 1;
+                }
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m
+                        && x.lineEquals(xHi - x2 - 1, y, yHi - y2 - 1)) {
+                    x2 += 1;
+                    y2 += 1;
+                }
+                backward[k2Offset] = x2;
+                if (x2 > n) {
+                    k2End += 2;
+                } else if (y2 > m) {
+                    k2Start += 2;
+                } else if (!odd) {
+                    int k1Offset = offset + delta - k2;
+                    if (k1Offset >= 0 && k1Offset < length && forward[k1Offset] != -1) {
+                        int x1 = forward[k1Offset];
+                        int y1 = offset + x1 - k1Offset;
+                        if (x1 >= n - x2) {
+                            return new int[] {xLo + x1, yLo + y1};
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,89 @@
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * JUnit tests for LineMerge: regions only one side changed, regions both
+ * changed alike or differently, and files without a last newline or with
+ * no lines at all.
+ */
+public class LineMergeTest {
+    private ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    /** Merges current and given with base, returning true if it was clean. */
+    private boolean merge(String base, String current, String given) throws IOException {
+        out.reset();
+        return LineMerge.merge(base.getBytes(UTF_8), current.getBytes(UTF_8),
+                given.getBytes(UTF_8), out, "master", "other");
+    }
+
+    /** Returns what the last merge wrote. */
+    private String merged() {
+        return new String(out.toByteArray(), UTF_8);
+    }
+
+    /** Tests that a change made on one side only is taken, from either side. */
+    @Test
+    public void testOneSidedChange() throws IOException {
+        String base = "a\nb\nc\nd\n";
+        assertTrue(merge(base, "a\nB\nc\nd\n", base));
+        assertEquals("a\nB\nc\nd\n", merged());
+        assertTrue(merge(base, base, "a\nc\nd\ne\n"));
+        assertEquals("a\nc\nd\ne\n", merged());
+        assertTrue(merge(base, "A\nb\nc\nd\n", "a\nb\nc\nD\n"));
+        assertEquals("A\nb\nc\nD\n", merged());
+    }
+
+    /** Tests that a change both sides made alike is taken once. */
+    @Test
+    public void testIdenticalChanges() throws IOException {
+        assertTrue(merge("a\nb\nc\n", "a\nx\ny\nc\n", "a\nx\ny\nc\n"));
+        assertEquals("a\nx\ny\nc\n", merged());
+    }
+
+    /** Tests that differing changes to one region are written between markers. */
+    @Test
+    public void testConflict() throws IOException {
+        assertFalse(merge("a\nb\nc\n", "a\nmine\nc\n", "a\ntheirs\nc\n"));
+        assertEquals("a\n<<<<<<< master\nmine\n=======\ntheirs\n>>>>>>> other\nc\n", merged());
+    }
+
+    /**
+     * Tests that a last line without a newline is kept as it is, and ended
+     * with one inside a conflict so the markers stay on their own lines.
+     */
+    @Test
+    public void testNoTrailingNewline() throws IOException {
+        assertTrue(merge("a\nb", "A\nb", "a\nb"));
+        assertEquals("A\nb", merged());
+        assertTrue(merge("a\nb", "a\nb", "a\nb\nc"));
+        assertEquals("a\nb\nc", merged());
+        assertFalse(merge("a\nb", "a\nmine", "a\ntheirs"));
+        assertEquals("a\n<<<<<<< master\nmine\n=======\ntheirs\n>>>>>>> other\n", merged());
+    }
+
+    /** Tests merges where the base or one side has no lines. */
+    @Test
+    public void testEmptySide() throws IOException {
+        assertTrue(merge("a\nb\n", "", "a\nb\n"));
+        assertEquals("", merged());
+        assertTrue(merge("", "", "new\n"));
+        assertEquals("new\n", merged());
+        assertFalse(merge("a\nb\n", "", "a\nB\n"));
+        assertEquals("<<<<<<< master\n=======\na\nB\n>>>>>>> other\n", merged());
+    }
+
+    /** Tests that contents with a NUL byte are not text. */
+    @Test
+    public void testIsText() {
+        assertTrue(LineMerge.isText("plain\ntext\n".getBytes(UTF_8)));
+        assertTrue(LineMerge.isText(new byte[0]));
+        assertFalse(LineMerge.isText(new byte[] {'a', 0, 'b'}));
+    }
+}
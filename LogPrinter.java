@@ -0,0 +1,162 @@
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Options of log and global-log, and the buffered writer their entries are
+ * printed through. The options are:
+ *
+ *   -n <count>      print at most count entries
+ *   --skip <count>  leave out the first count entries that would be printed
+ *   --since <date>  only entries committed at or after date
+ *   --until <date>  only entries committed at or before date
+ *   --oneline       print each entry as its abbreviated SHA and message
+ *
+ * A date is "yyyy-MM-dd HH:mm:ss", as log prints it, or "yyyy-MM-dd", which
+ * is the start of that day for --since and its end for --until.
+ *
+ * Output is buffered rather than flushed line by line. Every CHECK_INTERVAL
+ * entries it is flushed and checked for errors, so once the reader goes away,
+ * as when piping into head, printing stops.
+ */
+public class LogPrinter {
+    private static final int ABBREV_LENGTH = 12;
+    private static final int CHECK_INTERVAL = 256;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
+    private int skip = 0;
+    private int limit = -1;
+    private long since = Long.MIN_VALUE;
+    private long until = Long.MAX_VALUE;
+    private boolean oneline = false;
+    private int seen = 0;
+    private boolean closed = false;
+    private SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT);
+    private PrintWriter out = new PrintWriter(new BufferedWriter(
+            new OutputStreamWriter(System.out), BUFFER_SIZE));
+
+    /** Returns the printer for the options args, or null after printing an error. */
+    public static LogPrinter parse(String[] args) {
+        LogPrinter p = new LogPrinter();
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--oneline")) {
+                p.oneline = true;
+                continue;
+            }
+            if (!option.equals("-n") && !option.equals("--skip")
+                    && !option.equals("--since") && !option.equals("--until")) {
+                System.out.println("Invalid log option: " + option);
+                return null;
+            }
+            if (i + 1 == args.length) {
+                System.out.println("Missing value for " + option + ".");
+                return null;
+            }
+            i += 1;
+            String value = args[i];
+            if (option.equals("-n") || option.equals("--skip")) {
+                int count;
+                try {
+                    count = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    count = -1;
+                }
+                if (count < 0) {
+                    System.out.println("Invalid count: " + value);
+                    return null;
+                }
+                if (option.equals("-n")) {
+                    p.limit = count;
+                } else {
+                    p.skip = count;
+                }
+            } else {
+                Long time = parseDate(value, option.equals("--until"));
+                if (time == null) {
+                    System.out.println("Invalid date: " + value);
+                    return null;
+                }
+                if (option.equals("--since")) {
+                    p.since = time;
+                } else {
+                    p.until = time;
+                }
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Returns the time in milliseconds of date, or null if it is not a date.
+     * A day without a time is its last millisecond if end, else its first.
+     */
+    private static Long parseDate(String date, boolean end) {
+        boolean dayOnly = !date.contains(" ");
+        SimpleDateFormat f = new SimpleDateFormat(dayOnly ? "yyyy-MM-dd" : DATE_FORMAT);
+        f.setLenient(false);
+        try {
+            Date d = f.parse(date);
+            return (dayOnly && end) ? d.getTime() + DAY - 1 : d.getTime();
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns how many entries, newest first, can be printed at most, or -1
+     * if there is no limit.
+     */
+    public int wanted() {
+        return (limit < 0) ? -1 : skip + limit;
+    }
+
+    /** Returns true if time lies in the date range. */
+    public boolean inRange(long time) {
+        return time >= since && time <= until;
+    }
+
+    /** Returns true if time is before the start of the date range. */
+    public boolean isBefore(long time) {
+        return time < since;
+    }
+
+    /**
+     * Prints the entry of a commit if it is in the date range and not
+     * skipped. Returns false once no further entry would be printed.
+     */
+    public boolean print(String sha, long time, String msg) {
+        if (closed || seen == wanted()) {
+            return false;
+        }
+        if (!inRange(time)) {
+            return true;
+        }
+        seen += 1;
+        if (seen > skip) {
+            if (oneline) {
+                out.println(sha.substring(0, ABBREV_LENGTH) + " " + msg);
+            } else {
+                out.println("====");
+                out.println("Commit " + sha + ".");
+                out.println(format.format(new Date(time)));
+                out.println(msg + "\n");
+            }
+        }
+        if (seen % CHECK_INTERVAL == 0) {
+            out.flush();
+            closed = System.out.checkError();
+        }
+        return !closed && seen != wanted();
+    }
+
+    /** Flushes everything printed. */
+    public void close() {
+        out.flush();
+        closed = true;
+    }
+}
@@ -0,0 +1,294 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Persisted full-text index of commit messages. Entry i is the commit at
+ * position i of the CommitGraph: its SHA, time and message are appended to
+ * <gitletDir>/messages, and the offset of that record to messages.off, so
+ * that log entries can be printed without reading commit files.
+ *
+ * messages.tri is an inverted index from every trigram (three consecutive
+ * chars) of the messages of the first entries to the ascending list of
+ * entries whose message contains it. A search intersects the lists of the
+ * trigrams of the text it looks for, and only reads the messages of the
+ * entries left, plus those appended since the trigram index was built; once
+ * there are more than TAIL_LIMIT of those, it is rebuilt.
+ */
+public class MessageIndex {
+    private static final int SHA_BYTES = 32;
+    private static final int TAIL_LIMIT = 1024;
+    private static final int TABLE_RECORD_SIZE = 16;
+    private String path;
+    private MappedByteBuffer messages;
+    private MappedByteBuffer offsets;
+    private MappedByteBuffer trigrams;
+    private int size = -1;
+
+    /** Growable list of ints, for building postings without boxing. */
+    private static class IntList {
+        private int[] items = new int[4];
+        private int size = 0;
+
+        /** Appends i. */
+        void add(int i) {
+            if (size == items.length) {
+                int[] grown = new int[2 * size];
+                System.arraycopy(items, 0, grown, 0, size);
+                items = grown;
+            }
+            items[size] = i;
+            size += 1;
+        }
+    }
+
+    /** Constructs the index of the gitlet directory gitletDir, e.g. ".gitlet". */
+    public MessageIndex(String gitletDir) {
+        path = gitletDir + "/messages";
+    }
+
+    /** Returns the number of entries in THIS. */
+    public int size() {
+        if (size < 0) {
+            size = (int) (new File(path + ".off").length() / 8);
+        }
+        return size;
+    }
+
+    /** Appends an entry for the commit with the given SHA, time and message. */
+    public void add(String sha, long time, String msg) throws IOException {
+        byte[] text = msg.getBytes(UTF_8);
+        int n = size();
+        long offset;
+        try (RandomAccessFile f = new RandomAccessFile(path, "rw")) {
+            offset = f.length();
+            f.seek(offset);
+            for (int i = 0; i < SHA_BYTES; i++) {
+                f.writeByte(Integer.parseInt(sha.substring(2 * i, 2 * i + 2), 16));
+            }
+            f.writeLong(time);
+            f.writeInt(text.length);
+            f.write(text);
+        }
+        try (RandomAccessFile f = new RandomAccessFile(path + ".off", "rw")) {
+            f.setLength((long) n * 8);
+            f.seek((long) n * 8);
+            f.writeLong(offset);
+        }
+        messages = null;
+        offsets = null;
+        size = n + 1;
+    }
+
+    /** Maps the file at p, or returns null if it does not exist. */
+    private static MappedByteBuffer map(String p) throws IOException {
+        File f = new File(p);
+        if (!f.exists()) {
+            return null;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(f, "r")) {
+            FileChannel channel = in.getChannel();
+            return channel.map(READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /** Returns the offset in messages of the record of entry i. */
+    private int offsetOf(int i) throws IOException {
+        if (messages == null) {
+            messages = map(path);
+            offsets = map(path + ".off");
+        }
+        return (int) offsets.getLong(i * 8);
+    }
+
+    /** Returns the SHA of entry i. */
+    public String shaAt(int i) throws IOException {
+        int off = offsetOf(i);
+        byte[] sha = new byte[SHA_BYTES];
+        for (int j = 0; j < SHA_BYTES; j++) {
+            sha[j] = messages.get(off + j);
+        }
+        return BlobStore.toHex(sha);
+    }
+
+    /** Returns the commit time of entry i, in milliseconds. */
+    public long timeAt(int i) throws IOException {
+        int off = offsetOf(i) + SHA_BYTES;
+        return messages.getLong(off);
+    }
+
+    /** Returns true if the message of entry i is empty, as for a skipped commit. */
+    public boolean isEmptyAt(int i) throws IOException {
+        int off = offsetOf(i) + SHA_BYTES + 8;
+        return messages.getInt(off) == 0;
+    }
+
+    /** Returns the message of entry i. */
+    public String messageAt(int i) throws IOException {
+        int off = offsetOf(i) + SHA_BYTES + 8;
+        byte[] text = new byte[messages.getInt(off)];
+        for (int j = 0; j < text.length; j++) {
+            text[j] = messages.get(off + 4 + j);
+        }
+        return new String(text, UTF_8);
+    }
+
+    /** Returns the distinct trigrams of s, each packed into a long. */
+    private static HashSet<Long> trigramsOf(String s) {
+        HashSet<Long> result = new HashSet<Long>();
+        for (int i = 0; i + 3 <= s.length(); i++) {
+            result.add(((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16)
+                    | s.charAt(i + 2));
+        }
+        return result;
+    }
+
+    /** Maps the trigram index and returns how many entries it covers. */
+    private int mapTrigrams() throws IOException {
+        if (trigrams == null) {
+            trigrams = map(path + ".tri");
+            if (trigrams == null) {
+                return 0;
+            }
+        }
+        return trigrams.getInt(0);
+    }
+
+    /**
+     * Returns the ascending entries of the trigram index whose message
+     * contains trigram, found by binary search of its trigram table.
+     */
+    private int[] postingsOf(long trigram) {
+        int lo = 0, hi = trigrams.getInt(4);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            long t = trigrams.getLong(8 + mid * TABLE_RECORD_SIZE);
+            if (t < trigram) {
+                lo = mid + 1;
+            } else if (t > trigram) {
+                hi = mid;
+            } else {
+                int off = trigrams.getInt(8 + mid * TABLE_RECORD_SIZE + 8);
+                int[] postings = new int[trigrams.getInt(8 + mid * TABLE_RECORD_SIZE + 12)];
+                for (int i = 0; i < postings.length; i++) {
+                    postings[i] = trigrams.getInt(off + 4 * i);
+                }
+                return postings;
+            }
+        }
+        return new int[0];
+    }
+
+    /** Returns the ints in both ascending arrays a and b, ascending. */
+    private static int[] intersect(int[] a, int[] b) {
+        IntList both = new IntList();
+        for (int i = 0, j = 0; i < a.length && j < b.length;) {
+            if (a[i] < b[j]) {
+                i += 1;
+            } else if (a[i] > b[j]) {
+                j += 1;
+            } else {
+                both.add(a[i]);
+                i += 1;
+                j += 1;
+            }
+        }
+        int[] result = new int[both.size];
+        System.arraycopy(both.items, 0, result, 0, both.size);
+        return result;
+    }
+
+    /**
+     * Returns, in ascending order, the entries whose message may contain all
+     * of literals: every entry the trigram index places all their trigrams
+     * in, and every entry it does not cover yet. Literals shorter than three
+     * chars do not narrow the search.
+     */
+    public int[] candidates(Collection<String> literals) throws IOException {
+        int indexed = mapTrigrams();
+        int[] found = null;
+        for (String literal : literals) {
+            if (indexed == 0) {
+                break;
+            }
+            for (long trigram : trigramsOf(literal)) {
+                int[] postings = postingsOf(trigram);
+                found = (found == null) ? postings : intersect(found, postings);
+            }
+        }
+        int total = size();
+        int from = (found == null) ? 0 : indexed;
+        int head = (found == null) ? 0 : found.length;
+        int[] result = new int[head + total - from];
+        if (found != null) {
+            System.arraycopy(found, 0, result, 0, head);
+        }
+        for (int i = from; i < total; i++) {
+            result[head + i - from] = i;
+        }
+        return result;
+    }
+
+    /**
+     * Rebuilds the trigram index over all entries if more than TAIL_LIMIT
+     * were appended since it was last built. The index is a header of the
+     * number of entries covered and of trigrams, then a table of (trigram,
+     * postings offset, postings count) sorted by trigram, then the postings.
+     */
+    public void reindex() throws IOException {
+        int total = size();
+        if (total - mapTrigrams() <= TAIL_LIMIT) {
+            return;
+        }
+        HashMap<Long, IntList> postings = new HashMap<Long, IntList>();
+        for (int i = 0; i < total; i++) {
+            for (long trigram : trigramsOf(messageAt(i))) {
+                if (!postings.containsKey(trigram)) {
+                    postings.put(trigram, new IntList());
+                }
+                postings.get(trigram).add(i);
+            }
+        }
+        ArrayList<Long> keys = new ArrayList<Long>(postings.keySet());
+        Collections.sort(keys);
+        File tmp = new File(path + ".tri.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)))) {
+            out.writeInt(total);
+            out.writeInt(keys.size());
+            int off = 8 + keys.size() * TABLE_RECORD_SIZE;
+            for (long trigram : keys) {
+                int count = postings.get(trigram).size;
+                out.writeLong(trigram);
+                out.writeInt(off);
+                out.writeInt(count);
+                off += 4 * count;
+            }
+            for (long trigram : keys) {
+                IntList list = postings.get(trigram);
+                for (int i = 0; i < list.size; i++) {
+                    out.writeInt(list.items[i]);
+                }
+            }
+        }
+        Files.move(tmp.toPath(), Paths.get(path + ".tri"), REPLACE_EXISTING, ATOMIC_MOVE);
+        trigrams = null;
+    }
+}
@@ -0,0 +1,117 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * JUnit tests for MessageIndex: the entries it appends, and the candidates
+ * its trigram index narrows a search down to.
+ */
+public class MessageIndexTest {
+    /** Entries appended before the trigram index is first built. */
+    private static final int INDEXED = 1100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private String gitletDir;
+
+    @Before
+    public void setUp() {
+        gitletDir = folder.getRoot().getPath();
+    }
+
+    /** Returns a SHA made of the hex digit d, for entry d. */
+    private static String sha(int d) {
+        return String.join("", Collections.nCopies(64, Integer.toHexString(d % 16)));
+    }
+
+    /** Returns an index of n entries, "ticket-0" to "ticket-(n-1)", built. */
+    private MessageIndex indexOf(int n) throws IOException {
+        MessageIndex index = new MessageIndex(gitletDir);
+        for (int i = 0; i < n; i++) {
+            index.add(sha(i), 1000L * i, "ticket-" + i);
+        }
+        index.reindex();
+        return index;
+    }
+
+    /** Tests that an entry reads back as it was appended, from a new index too. */
+    @Test
+    public void testEntriesRoundTrip() throws IOException {
+        MessageIndex index = new MessageIndex(gitletDir);
+        index.add(sha(10), 42L, "first message");
+        index.add(sha(11), 43L, "");
+        index.add(sha(12), 44L, "café ☃");
+        MessageIndex reread = new MessageIndex(gitletDir);
+        assertEquals(3, reread.size());
+        assertEquals(sha(10), reread.shaAt(0));
+        assertEquals(42L, reread.timeAt(0));
+        assertEquals("first message", reread.messageAt(0));
+        assertTrue(reread.isEmptyAt(1));
+        assertFalse(reread.isEmptyAt(2));
+        assertEquals("café ☃", reread.messageAt(2));
+        assertEquals(44L, reread.timeAt(2));
+    }
+
+    /** Tests that every entry is a candidate before the trigram index exists. */
+    @Test
+    public void testCandidatesWithoutTrigrams() throws IOException {
+        MessageIndex index = indexOf(5);
+        assertFalse(new File(gitletDir + "/messages.tri").exists());
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4},
+                index.candidates(Collections.singletonList("ticket-3")));
+    }
+
+    /**
+     * Tests that the trigram index narrows candidates to the entries holding
+     * every literal, plus every entry appended since it was built.
+     */
+    @Test
+    public void testCandidatesNarrowed() throws IOException {
+        MessageIndex index = indexOf(INDEXED);
+        assertTrue(new File(gitletDir + "/messages.tri").exists());
+        index.add(sha(0), 0L, "appended later");
+        int[] found = index.candidates(Collections.singletonList("ticket-1099"));
+        assertArrayEquals(new int[] {1099, INDEXED}, found);
+        found = index.candidates(Arrays.asList("ticket-10", "ket-104"));
+        assertArrayEquals(new int[] {104, 1040, 1041, 1042, 1043, 1044, 1045, 1046, 1047,
+            1048, 1049, INDEXED}, found);
+        assertArrayEquals(new int[] {INDEXED},
+                index.candidates(Collections.singletonList("no such text")));
+    }
+
+    /** Tests that literals shorter than a trigram do not narrow the search. */
+    @Test
+    public void testShortLiteralsDoNotNarrow() throws IOException {
+        MessageIndex index = indexOf(INDEXED);
+        assertEquals(INDEXED, index.candidates(Arrays.asList("t", "-1")).length);
+        assertEquals(INDEXED, index.candidates(Collections.<String>emptyList()).length);
+    }
+
+    /** Tests that reindex rebuilds only after more than 1024 new entries. */
+    @Test
+    public void testReindexAfterTail() throws IOException {
+        MessageIndex index = indexOf(INDEXED);
+        for (int i = 0; i < 1024; i++) {
+            index.add(sha(i), 0L, "later " + i);
+        }
+        index.reindex();
+        int[] found = index.candidates(Collections.singletonList("ticket-7"));
+        assertEquals(1 + 10 + 100 + 1024, found.length);
+        assertEquals(7, found[0]);
+        index.add(sha(1), 0L, "later 1024");
+        index.reindex();
+        assertArrayEquals(new int[] {INDEXED + 1024},
+                index.candidates(Collections.singletonList("later 1024")));
+    }
+}
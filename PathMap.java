@@ -0,0 +1,393 @@
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Stack;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Immutable map from file paths to blob hashes, implemented as a hash array
+ * mapped trie. put and remove return a new map that shares every untouched
+ * node with the old one, so a commit that changes k files of an n-file tree
+ * allocates O(k log n) instead of copying all n entries of its parent.
+ *
+ * The shape of the trie depends only on its keys, never on the order they
+ * were put or removed in, so it doubles as a Merkle tree: treeHash digests
+ * each node from its children's digests, which are computed once per node
+ * and cached, so the tree hash of a map made by changing k entries of
+ * another costs O(k log n).
+ */
+public class PathMap {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final byte LEAF = 'L';
+    private static final byte COLLISION = 'C';
+    private static final byte NODE = 'N';
+    private static final PathMap EMPTY = new PathMap(null, 0);
+    private final Node root;
+    private final int size;
+
+    /** An entry of the map. */
+    private static final class Leaf {
+        private final int hash;
+        private final String key;
+        private final String value;
+        private byte[] digest;
+
+        Leaf(int hash, String key, String value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /** Entries whose keys have the same full hash. */
+    private static final class Collision {
+        private final int hash;
+        private final Leaf[] leaves;
+        private byte[] digest;
+
+        Collision(int hash, Leaf[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+    }
+
+    /**
+     * Interior node. Bit i of bitmap is set if some key's next BITS hash bits
+     * equal i; slots holds a Leaf, Collision or Node for each set bit, in bit
+     * order.
+     */
+    private static final class Node {
+        private final int bitmap;
+        private final Object[] slots;
+        private byte[] digest;
+
+        Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+    }
+
+    /** Constructs a map with the given root and number of entries. */
+    private PathMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /** Returns the empty map. */
+    public static PathMap empty() {
+        return EMPTY;
+    }
+
+    /** Returns the hash used to place key in the trie. */
+    private static int hashOf(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /** Returns the number of entries in THIS. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the value mapped to key, or null. */
+    public String get(String key) {
+        int hash = hashOf(key);
+        Object slot = root;
+        for (int shift = 0; slot instanceof Node; shift += BITS) {
+            Node n = (Node) slot;
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((n.bitmap & bit) == 0) {
+                return null;
+            }
+            slot = n.slots[Integer.bitCount(n.bitmap & (bit - 1))];
+        }
+        if (slot instanceof Leaf) {
+            Leaf l = (Leaf) slot;
+            return l.key.equals(key) ? l.value : null;
+        }
+        if (slot instanceof Collision) {
+            for (Leaf l : ((Collision) slot).leaves) {
+                if (l.key.equals(key)) {
+                    return l.value;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Returns true if THIS maps key to something. */
+    public boolean containsKey(String key) {
+        return get(key) != null;
+    }
+
+    /** Returns a map like THIS, but with key mapped to value. */
+    public PathMap put(String key, String value) {
+        String old = get(key);
+        if (value.equals(old)) {
+            return this;
+        }
+        Node newRoot = put(root, 0, new Leaf(hashOf(key), key, value));
+        return new PathMap(newRoot, old == null ? size + 1 : size);
+    }
+
+    /** Returns a copy of n, or a new node if n is null, with leaf added. */
+    private static Node put(Node n, int shift, Leaf leaf) {
+        if (n == null) {
+            return new Node(1 << ((leaf.hash >>> shift) & MASK), new Object[] {leaf});
+        }
+        int bit = 1 << ((leaf.hash >>> shift) & MASK);
+        int pos = Integer.bitCount(n.bitmap & (bit - 1));
+        if ((n.bitmap & bit) == 0) {
+            Object[] slots = new Object[n.slots.length + 1];
+            System.arraycopy(n.slots, 0, slots, 0, pos);
+            slots[pos] = leaf;
+            System.arraycopy(n.slots, pos, slots, pos + 1, n.slots.length - pos);
+            return new Node(n.bitmap | bit, slots);
+        }
+        Object[] slots = n.slots.clone();
+        slots[pos] = putInSlot(n.slots[pos], shift + BITS, leaf);
+        return new Node(n.bitmap, slots);
+    }
+
+    /** Returns what replaces slot, found at depth shift, once leaf is added. */
+    private static Object putInSlot(Object slot, int shift, Leaf leaf) {
+        if (slot instanceof Node) {
+            return put((Node) slot, shift, leaf);
+        }
+        int slotHash;
+        if (slot instanceof Leaf) {
+            Leaf l = (Leaf) slot;
+            if (l.key.equals(leaf.key)) {
+                return leaf;
+            }
+            slotHash = l.hash;
+        } else {
+            slotHash = ((Collision) slot).hash;
+        }
+        if (slotHash == leaf.hash) {
+            return addToCollision(slot, leaf);
+        }
+        Node split = new Node(1 << ((slotHash >>> shift) & MASK), new Object[] {slot});
+        return put(split, shift, leaf);
+    }
+
+    /** Returns slot, a Leaf or Collision of leaf's hash, with leaf added. */
+    private static Collision addToCollision(Object slot, Leaf leaf) {
+        Leaf[] leaves;
+        if (slot instanceof Leaf) {
+            leaves = new Leaf[] {(Leaf) slot};
+        } else {
+            leaves = ((Collision) slot).leaves;
+        }
+        for (int i = 0; i < leaves.length; i++) {
+            if (leaves[i].key.equals(leaf.key)) {
+                Leaf[] replaced = leaves.clone();
+                replaced[i] = leaf;
+                return new Collision(leaf.hash, replaced);
+            }
+        }
+        Leaf[] added = new Leaf[leaves.length + 1];
+        System.arraycopy(leaves, 0, added, 0, leaves.length);
+        added[leaves.length] = leaf;
+        return new Collision(leaf.hash, added);
+    }
+
+    /** Returns a map like THIS, but without key. */
+    public PathMap remove(String key) {
+        if (!containsKey(key)) {
+            return this;
+        }
+        return new PathMap((Node) remove(root, 0, hashOf(key), key), size - 1);
+    }
+
+    /**
+     * Returns what replaces n, at depth shift, once key, known to be present,
+     * is removed: a Node, or below the root also a lone Leaf or Collision
+     * for the caller to inline, or null if nothing is left.
+     */
+    private static Object remove(Node n, int shift, int hash, String key) {
+        int bit = 1 << ((hash >>> shift) & MASK);
+        int pos = Integer.bitCount(n.bitmap & (bit - 1));
+        Object slot = n.slots[pos];
+        Object replacement;
+        if (slot instanceof Node) {
+            replacement = remove((Node) slot, shift + BITS, hash, key);
+        } else if (slot instanceof Collision) {
+            replacement = removeFromCollision((Collision) slot, key);
+        } else {
+            replacement = null;
+        }
+        if (replacement == null) {
+            if (n.slots.length == 1) {
+                return null;
+            }
+            Object[] slots = new Object[n.slots.length - 1];
+            System.arraycopy(n.slots, 0, slots, 0, pos);
+            System.arraycopy(n.slots, pos + 1, slots, pos, n.slots.length - pos - 1);
+            if (slots.length == 1 && !(slots[0] instanceof Node) && shift > 0) {
+                return slots[0];
+            }
+            return new Node(n.bitmap & ~bit, slots);
+        }
+        if (n.slots.length == 1 && !(replacement instanceof Node) && shift > 0) {
+            return replacement;
+        }
+        Object[] slots = n.slots.clone();
+        slots[pos] = replacement;
+        return new Node(n.bitmap, slots);
+    }
+
+    /** Returns c without key, as a Leaf if only one entry is left. */
+    private static Object removeFromCollision(Collision c, String key) {
+        if (c.leaves.length == 2) {
+            return c.leaves[0].key.equals(key) ? c.leaves[1] : c.leaves[0];
+        }
+        Leaf[] leaves = new Leaf[c.leaves.length - 1];
+        int i = 0;
+        for (Leaf l : c.leaves) {
+            if (!l.key.equals(key)) {
+                leaves[i] = l;
+                i += 1;
+            }
+        }
+        return new Collision(c.hash, leaves);
+    }
+
+    /**
+     * Returns the hex SHA-256 tree hash of THIS, which is the same for any
+     * two maps with equal entries.
+     */
+    public String treeHash() {
+        return BlobStore.toHex(root == null ? digest() : digestOf(root));
+    }
+
+    /** Returns the digest of the given bytes. */
+    private static byte[] digest(byte[]... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (byte[] part : parts) {
+                digest.update(part);
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /** Returns the cached digest of slot, computing it the first time. */
+    private static byte[] digestOf(Object slot) {
+        if (slot instanceof Leaf) {
+            Leaf l = (Leaf) slot;
+            if (l.digest == null) {
+                l.digest = digest(new byte[] {LEAF}, l.key.getBytes(UTF_8), new byte[1],
+                        l.value.getBytes(UTF_8));
+            }
+            return l.digest;
+        }
+        if (slot instanceof Collision) {
+            Collision c = (Collision) slot;
+            if (c.digest == null) {
+                Leaf[] sorted = c.leaves.clone();
+                Arrays.sort(sorted, new Comparator<Leaf>() {
+                    @Override
+                    public int compare(Leaf a, Leaf b) {
+                        return a.key.compareTo(b.key);
+                    }
+                });
+                byte[][] parts = new byte[sorted.length + 1][];
+                parts[0] = new byte[] {COLLISION};
+                for (int i = 0; i < sorted.length; i++) {
+                    parts[i + 1] = digestOf(sorted[i]);
+                }
+                c.digest = digest(parts);
+            }
+            return c.digest;
+        }
+        Node n = (Node) slot;
+        if (n.digest == null) {
+            byte[][] parts = new byte[n.slots.length + 1][];
+            int b = n.bitmap;
+            parts[0] = new byte[] {NODE, (byte) (b >>> 24), (byte) (b >>> 16), (byte) (b >>> 8),
+                (byte) b};
+            for (int i = 0; i < n.slots.length; i++) {
+                parts[i + 1] = digestOf(n.slots[i]);
+            }
+            n.digest = digest(parts);
+        }
+        return n.digest;
+    }
+
+    /** Returns a read-only view of the keys of THIS. */
+    public AbstractSet<String> keySet() {
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new KeyIterator(root);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof String && containsKey((String) o);
+            }
+        };
+    }
+
+    /** Iterates over the keys of a trie, depth first. */
+    private static final class KeyIterator implements Iterator<String> {
+        private Stack<Object> pending;
+        private Leaf next;
+
+        KeyIterator(Node root) {
+            pending = new Stack<Object>();
+            if (root != null) {
+                pending.push(root);
+            }
+            advance();
+        }
+
+        /** Moves next to the next leaf, or null if there is none. */
+        private void advance() {
+            next = null;
+            while (next == null && !pending.empty()) {
+                Object slot = pending.pop();
+                if (slot instanceof Leaf) {
+                    next = (Leaf) slot;
+                } else if (slot instanceof Collision) {
+                    for (Leaf l : ((Collision) slot).leaves) {
+                        pending.push(l);
+                    }
+                } else {
+                    for (Object child : ((Node) slot).slots) {
+                        pending.push(child);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            String key = next.key;
+            advance();
+            return key;
+        }
+    }
+}
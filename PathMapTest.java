@@ -0,0 +1,125 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * JUnit tests for PathMap: lookups after puts and removes, against a
+ * HashMap, and tree hashes that depend only on the entries of a map.
+ */
+public class PathMapTest {
+    private static final int N = 5000;
+
+    /** Returns the map of path i to "blob" + i for every i below n. */
+    private static PathMap mapOf(int n) {
+        PathMap map = PathMap.empty();
+        for (int i = 0; i < n; i++) {
+            map = map.put("dir" + (i % 7) + "/file" + i, "blob" + i);
+        }
+        return map;
+    }
+
+    /** Tests lookups, size and keySet after random puts and removes. */
+    @Test
+    public void testLookups() {
+        Random random = new Random(1);
+        PathMap map = PathMap.empty();
+        HashMap<String, String> expected = new HashMap<String, String>();
+        for (int step = 0; step < 4 * N; step++) {
+            String key = "f" + random.nextInt(N);
+            if (random.nextInt(3) == 0) {
+                map = map.remove(key);
+                expected.remove(key);
+            } else {
+                String value = "v" + random.nextInt(10);
+                map = map.put(key, value);
+                expected.put(key, value);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected.keySet(), new HashSet<String>(map.keySet()));
+        for (int i = 0; i < N; i++) {
+            String key = "f" + i;
+            assertEquals(expected.get(key), map.get(key));
+            assertEquals(expected.containsKey(key), map.containsKey(key));
+        }
+    }
+
+    /** Tests that put and remove leave the map they were called on unchanged. */
+    @Test
+    public void testPersistence() {
+        PathMap before = mapOf(100);
+        PathMap after = before.put("dir0/file0", "changed").remove("dir1/file1").put("new", "x");
+        assertEquals("blob0", before.get("dir0/file0"));
+        assertEquals("blob1", before.get("dir1/file1"));
+        assertNull(before.get("new"));
+        assertEquals(100, before.size());
+        assertEquals("changed", after.get("dir0/file0"));
+        assertFalse(after.containsKey("dir1/file1"));
+        assertEquals(100, after.size());
+        assertSame(before, before.put("dir2/file2", "blob2"));
+        assertSame(before, before.remove("missing"));
+    }
+
+    /** Tests keys whose hash codes are equal, "Aa" and "BB". */
+    @Test
+    public void testCollisions() {
+        PathMap map = PathMap.empty().put("Aa", "1").put("BB", "2").put("AaAa", "3");
+        assertEquals("1", map.get("Aa"));
+        assertEquals("2", map.get("BB"));
+        assertEquals(3, map.size());
+        PathMap removed = map.remove("Aa");
+        assertNull(removed.get("Aa"));
+        assertEquals("2", removed.get("BB"));
+        assertEquals(PathMap.empty().put("BB", "2").put("AaAa", "3").treeHash(),
+                removed.treeHash());
+        assertEquals(PathMap.empty().put("BB", "2").put("Aa", "1").put("AaAa", "3").treeHash(),
+                map.treeHash());
+    }
+
+    /** Tests that the tree hash does not depend on the order entries were put in. */
+    @Test
+    public void testTreeHashOrder() {
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < N; i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(2));
+        PathMap shuffled = PathMap.empty();
+        for (int i : order) {
+            shuffled = shuffled.put("dir" + (i % 7) + "/file" + i, "blob" + i);
+        }
+        assertEquals(mapOf(N).treeHash(), shuffled.treeHash());
+        PathMap extra = mapOf(N).put("extra", "x");
+        assertEquals(mapOf(N).treeHash(), extra.remove("extra").treeHash());
+    }
+
+    /** Tests that the tree hash changes with any key or value. */
+    @Test
+    public void testTreeHashChanges() {
+        PathMap map = mapOf(N);
+        String hash = map.treeHash();
+        assertEquals(64, hash.length());
+        HashSet<String> seen = new HashSet<String>();
+        seen.add(hash);
+        seen.add(map.put("dir3/file3", "other").treeHash());
+        seen.add(map.remove("dir3/file3").treeHash());
+        seen.add(map.remove("dir3/file3").put("dir3/file3x", "blob3").treeHash());
+        seen.add(PathMap.empty().treeHash());
+        assertEquals(5, seen.size());
+        assertNotEquals(PathMap.empty().put("a", "bc").treeHash(),
+                PathMap.empty().put("ab", "c").treeHash());
+        assertTrue(PathMap.empty().keySet().isEmpty());
+    }
+}
@@ -0,0 +1,149 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Everything a push sends, in one file: the blobs and commits the remote
+ * lacks, then the branch update. It is written by the pushing side into
+ * <gitletDir>/incoming/, sent in a single transfer, and indexed by the
+ * receiving side in one pass as soon as it has arrived, so the pusher
+ * learns whether it was applied. A pack left there by an interrupted push
+ * is indexed before the remote's next command reads any state. The format
+ * is
+ *
+ *   MAGIC
+ *   branch, the head the pusher saw there ("" if none), the new head, root
+ *   number of blobs, then each as BlobStore.writeEntry writes it
+ *   number of commits, then each, parents first, as its SHA and its commit
+ *   file less its position, prefixed by its length
+ *
+ * The branch is only moved if it still is at the head the pusher saw, so a
+ * push that raced with another is not applied over it; a pack sent twice
+ * is applied once.
+ */
+public class PushPack {
+    private static final int MAGIC = 0x474c5031;
+    private static final String INCOMING = "incoming";
+    private static final String SUFFIX = ".pack";
+
+    /**
+     * Writes a pack of the blobs with the given hashes from blobs and the
+     * commits with the given SHAs from commits, which move branch from
+     * oldHead to newHead, into gitletDir/incoming. root is the SHA of the
+     * initial commit. Returns the path of the pack relative to gitletDir.
+     */
+    public static String write(String gitletDir, String branch, String oldHead,
+            String newHead, String root, Collection<String> hashes, BlobStore blobs,
+            Collection<String> shas, CommitStore commits) throws IOException {
+        String path = String.format("%s/%013d-%s%s", INCOMING, System.currentTimeMillis(),
+                newHead, SUFFIX);
+        File f = new File(gitletDir + "/" + path);
+        f.getParentFile().mkdirs();
+        File tmp = new File(f.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(branch);
+            out.writeUTF(oldHead);
+            out.writeUTF(newHead);
+            out.writeUTF(root);
+            out.writeInt(hashes.size());
+            for (String hash : hashes) {
+                blobs.writeEntry(hash, out);
+            }
+            out.writeInt(shas.size());
+            for (String sha : shas) {
+                byte[] data = commits.rawData(sha);
+                out.writeUTF(sha);
+                out.writeInt(data.length);
+                out.write(data);
+            }
+        }
+        Files.move(tmp.toPath(), f.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+        return path;
+    }
+
+    /**
+     * Indexes every pack waiting in gitletDir/incoming, oldest first,
+     * deleting each, then the directory if it is left empty. Does nothing if
+     * none is waiting. Returns false if the branch update of any was
+     * rejected.
+     */
+    public static boolean receiveAll(String gitletDir) throws IOException {
+        String[] names = new File(gitletDir + "/" + INCOMING).list();
+        if (names == null) {
+            return true;
+        }
+        Arrays.sort(names);
+        boolean applied = true;
+        for (String name : names) {
+            if (name.endsWith(SUFFIX)) {
+                File pack = new File(gitletDir + "/" + INCOMING + "/" + name);
+                applied &= receive(gitletDir, pack);
+                Files.delete(pack.toPath());
+            }
+        }
+        new File(gitletDir + "/" + INCOMING).delete();
+        return applied;
+    }
+
+    /**
+     * Stores the blobs and commits of pack in the repository in gitletDir,
+     * reading it once, then moves its branch if no other push moved it.
+     * Returns false, after saying so, if another push did.
+     */
+    private static boolean receive(String gitletDir, File pack) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(pack), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a push pack: " + pack);
+            }
+            String branch = in.readUTF();
+            String oldHead = in.readUTF();
+            String newHead = in.readUTF();
+            String root = in.readUTF();
+            BlobStore blobs = new BlobStore(gitletDir);
+            for (int n = in.readInt(); n > 0; n--) {
+                blobs.readEntry(in);
+            }
+            CommitStore commits = new CommitStore(gitletDir);
+            for (int n = in.readInt(); n > 0; n--) {
+                String sha = in.readUTF();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                commits.importCommit(sha, data);
+            }
+            commits.finishImport();
+            StateLog state = new StateLog(gitletDir);
+            if (state.exists()) {
+                state.load();
+            }
+            String current = state.getRefs().get(branch);
+            if (newHead.equals(current)) {
+                return true;
+            }
+            if (!oldHead.equals(current == null ? "" : current)) {
+                System.out.println("Rejected a push to " + branch
+                        + ": the branch moved since it was read.");
+                return false;
+            }
+            if (state.getRoot().equals("")) {
+                state.syncRoot(root);
+            }
+            state.moveRef(branch, newHead);
+            state.flush();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The repository at the other end of a push, pull or clone, reached through
+ * a Transport. Since a commit has the same SHA in every repository, the two
+ * sides negotiate by SHA: the remote advertises its branch heads, in its
+ * state log, which is all that is downloaded up front, and the commits it
+ * has, in its commit graph, which is downloaded when needed. Only the
+ * commits one side lacks are transferred, each with the blobs of the files
+ * new in it that the other side lacks. Fetched blobs are copied in
+ * parallel; a push is sent as one PushPack.
+ */
+public class RemoteRepo {
+    /** Most commit graph records missingSince reads before the whole graph. */
+    private static final int WALK_LIMIT = 32;
+    private Transport transport;
+    private String gitletDir;
+    private StateLog state;
+    private CommitGraph graph;
+    private boolean partialGraph;
+
+    /** Constructs the remote repository reached through transport. */
+    public RemoteRepo(Transport transport) {
+        this.transport = transport;
+        this.gitletDir = transport.gitletDir();
+    }
+
+    /**
+     * Reads the remote's advertisement, its state log. Returns false if the
+     * remote has no gitlet state. Its commit graph is only read once it is
+     * needed.
+     */
+    public boolean advertise() throws IOException {
+        transport.download(Collections.singletonList("state.log"));
+        state = new StateLog(gitletDir);
+        if (!state.exists()) {
+            return false;
+        }
+        state.load();
+        return true;
+    }
+
+    /**
+     * Returns the remote's commit graph, reading it, with the indexes of the
+     * graph and of its pack, the first time, in whole even if missingSince
+     * read some of its records.
+     */
+    private CommitGraph graph() throws IOException {
+        if (graph == null) {
+            if (partialGraph) {
+                transport.downloadRanges("commit-graph", new long[] {0}, new long[] {-1});
+            }
+            transport.download(Arrays.asList("commit-graph", "commit-graph.idx", "pack.idx"));
+            graph = new CommitGraph(gitletDir);
+        }
+        return graph;
+    }
+
+    /** Returns the remote's branch heads, by branch name. */
+    public HashMap<String, String> getRefs() {
+        return state.getRefs();
+    }
+
+    /** Returns the name of the remote's current branch. */
+    public String getCurrName() {
+        return state.getCurrName();
+    }
+
+    /** Returns the SHA of the remote's initial commit. */
+    public String getRoot() {
+        return state.getRoot();
+    }
+
+    /** Returns true if the remote has the commit with the given SHA. */
+    public boolean has(String sha) throws IOException {
+        return graph().matching(sha, 1).size() == 1;
+    }
+
+    /**
+     * Returns the SHAs of the commits in the history of the remote commit
+     * sha that local lacks, parents first. The remote's graph is walked
+     * from sha until a commit local has.
+     */
+    public ArrayList<String> missingFrom(String sha, CommitStore local) throws IOException {
+        return missingFrom(sha, local, -1);
+    }
+
+    /**
+     * Returns the SHAs of the commits in the history of the remote commit
+     * sha that local lacks, parents first, but only among the depth most
+     * recent commits of that history unless depth is -1. With a depth, the
+     * walk goes on past commits local has, so that a branch sharing history
+     * with one fetched before still gets depth commits.
+     */
+    public ArrayList<String> missingFrom(String sha, CommitStore local, int depth)
+            throws IOException {
+        ArrayList<String> missing = new ArrayList<String>();
+        if (depth < 0 && local.containsKey(sha)) {
+            return missing;
+        }
+        transport.download(Collections.singletonList(CommitStore.pathOf(sha)));
+        Integer pos = new CommitStore(gitletDir).positionOf(sha);
+        if (pos == null) {
+            throw new IOException("Remote lacks commit " + sha);
+        }
+        for (int p = pos, n = 0; p >= 0 && n != depth; p = graph().parentOf(p), n++) {
+            String s = graph().shaAt(p);
+            if (!local.containsKey(s)) {
+                missing.add(s);
+            } else if (depth < 0) {
+                break;
+            }
+        }
+        Collections.reverse(missing);
+        return missing;
+    }
+
+    /**
+     * Returns the SHAs of the commits in the history of the remote commit
+     * sha that local lacks, parents first, as missingFrom does, but found by
+     * reading only the WALK_LIMIT records of the remote's commit graph up to
+     * sha's, in one transfer, rather than the whole graph. When local has a
+     * recent commit of that history, such as the head last fetched, these
+     * hold every new commit; otherwise it falls back to missingFrom. If
+     * local has the parent of sha, no records are read.
+     */
+    public ArrayList<String> missingSince(String sha, CommitStore local) throws IOException {
+        ArrayList<String> missing = new ArrayList<String>();
+        if (local.containsKey(sha)) {
+            return missing;
+        }
+        transport.download(Collections.singletonList(CommitStore.pathOf(sha)));
+        CommitStore commits = new CommitStore(gitletDir);
+        Integer pos = commits.positionOf(sha);
+        if (pos == null) {
+            throw new IOException("Remote lacks commit " + sha);
+        }
+        String parent = commits.getHeader(sha).getParentSHA();
+        if (parent.equals("") || local.containsKey(parent)) {
+            missing.add(sha);
+            return missing;
+        }
+        int first = Math.max(0, pos - WALK_LIMIT + 1);
+        CommitGraph records = graph;
+        if (records == null) {
+            transport.downloadRanges("commit-graph", new long[] {CommitGraph.offsetOf(first)},
+                    new long[] {CommitGraph.offsetOf(pos + 1) - CommitGraph.offsetOf(first)});
+            partialGraph = true;
+            records = new CommitGraph(gitletDir);
+        }
+        for (int p = pos; p >= 0; p = records.parentOf(p)) {
+            if (p < first) {
+                return missingFrom(sha, local);
+            }
+            String s = records.shaAt(p);
+            if (local.containsKey(s)) {
+                break;
+            }
+            missing.add(s);
+        }
+        Collections.reverse(missing);
+        return missing;
+    }
+
+    /**
+     * Fetches the remote commits with the given SHAs, parents first, into
+     * local, after the blobs new in them that localBlobs lacks. A commit
+     * whose parent neither local has nor is fetched along becomes a shallow
+     * boundary of local, so all its blobs that localBlobs lacks are fetched.
+     */
+    public void fetch(ArrayList<String> shas, CommitStore local, BlobStore localBlobs)
+            throws IOException {
+        ArrayList<String> paths = new ArrayList<String>();
+        for (String sha : shas) {
+            paths.add(CommitStore.pathOf(sha));
+        }
+        transport.download(paths);
+        CommitStore commits = new CommitStore(gitletDir);
+        HashSet<String> fetched = new HashSet<String>(shas);
+        HashMap<String, CommitNode> boundaries = new HashMap<String, CommitNode>();
+        HashSet<String> wanted = new HashSet<String>();
+        for (String sha : shas) {
+            String parent = commits.getHeader(sha).getParentSHA();
+            HashSet<String> hashes;
+            if (parent.equals("") || fetched.contains(parent) || local.containsKey(parent)) {
+                hashes = commits.newBlobs(sha);
+            } else {
+                CommitNode c = readWhole(sha, commits);
+                boundaries.put(sha, c);
+                hashes = new HashSet<String>();
+                for (String filename : c.getAllFiles()) {
+                    hashes.add(c.blobOf(filename));
+                }
+            }
+            for (String hash : hashes) {
+                if (!localBlobs.contains(hash)) {
+                    wanted.add(hash);
+                }
+            }
+        }
+        fetchBlobs(wanted, localBlobs);
+        for (String sha : shas) {
+            if (boundaries.containsKey(sha)) {
+                local.importBoundary(boundaries.get(sha));
+            } else {
+                local.importCommit(sha, commits.rawData(sha));
+            }
+        }
+        local.finishImport();
+    }
+
+    /**
+     * Reads the remote commit sha with its files from commits, after
+     * downloading the ancestors its file map may be stored relative to.
+     */
+    private CommitNode readWhole(String sha, CommitStore commits) throws IOException {
+        ArrayList<String> paths = new ArrayList<String>();
+        int p = graph().parentOf(commits.positionOf(sha));
+        for (int i = 1; i < CommitNode.FULL_MAP_INTERVAL && p >= 0; i++) {
+            paths.add(CommitStore.pathOf(graph().shaAt(p)));
+            p = graph().parentOf(p);
+        }
+        transport.download(paths);
+        CommitNode c = commits.get(sha);
+        if (c == null) {
+            throw new IOException("Could not read remote commit " + sha);
+        }
+        return c;
+    }
+
+    /**
+     * Copies the remote blobs with the given hashes into to. A loose blob is
+     * downloaded as it is. Of a packed blob, only the pack records of its
+     * delta chain are downloaded, a link of every chain at a time, down to a
+     * blob that to holds or that is loose in the remote; the chain is
+     * rebuilt as the blob is copied.
+     */
+    private void fetchBlobs(Collection<String> hashes, BlobStore to) throws IOException {
+        ArrayList<String> paths = new ArrayList<String>();
+        paths.add("pack.idx");
+        for (String hash : hashes) {
+            paths.addAll(Arrays.asList(BlobStore.loosePaths(hash)));
+        }
+        transport.download(paths);
+        BlobStore blobs = new BlobStore(gitletDir);
+        HashSet<String> seen = new HashSet<String>(hashes);
+        ArrayList<String> links = new ArrayList<String>();
+        for (String hash : hashes) {
+            if (blobs.pathOf(hash) == null) {
+                links.add(hash);
+            }
+        }
+        while (!links.isEmpty()) {
+            downloadRecords(links, blobs);
+            ArrayList<String> bases = new ArrayList<String>();
+            paths.clear();
+            for (String hash : links) {
+                String base = blobs.baseOf(hash);
+                if (seen.add(base) && !to.contains(base)) {
+                    bases.add(base);
+                    paths.addAll(Arrays.asList(BlobStore.loosePaths(base)));
+                }
+            }
+            transport.download(paths);
+            links.clear();
+            for (String base : bases) {
+                if (blobs.pathOf(base) == null) {
+                    links.add(base);
+                }
+            }
+        }
+        copyBlobs(hashes, blobs, to);
+    }
+
+    /**
+     * Downloads the pack records of the remote blobs with the given hashes,
+     * readable through blobs, in one transfer.
+     */
+    private void downloadRecords(ArrayList<String> hashes, BlobStore blobs)
+            throws IOException {
+        long[] offsets = new long[hashes.size()];
+        long[] lengths = new long[hashes.size()];
+        for (int i = 0; i < hashes.size(); i++) {
+            long[] range = blobs.packedRange(hashes.get(i));
+            if (range == null) {
+                throw new IOException("Remote lacks blob " + hashes.get(i));
+            }
+            offsets[i] = range[0];
+            lengths[i] = range[1];
+        }
+        transport.downloadRanges("pack", offsets, lengths);
+    }
+
+    /**
+     * Copies the blobs with the given hashes from one store to another, by a
+     * pool of Gitlet.IO_WORKERS threads.
+     */
+    private static void copyBlobs(Collection<String> hashes, final BlobStore from,
+            final BlobStore to) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(Gitlet.IO_WORKERS, hashes.size())));
+        ArrayList<Future<String>> results = new ArrayList<Future<String>>();
+        for (final String hash : hashes) {
+            results.add(pool.submit(new Callable<String>() {
+                public String call() throws IOException {
+                    from.copyTo(hash, to);
+                    return hash;
+                }
+            }));
+        }
+        pool.shutdown();
+        for (Future<String> result : results) {
+            try {
+                result.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IOException("Could not copy blob: " + e);
+            }
+        }
+    }
+
+    /**
+     * Sends the local commits with the given SHAs, parents first, with the
+     * blobs new in them that the remote lacks, as one push pack that also
+     * moves the remote's branch to head. root is the SHA of the initial
+     * commit, recorded if the remote has none yet.
+     */
+    public void push(ArrayList<String> shas, String head, String branch, String root,
+            CommitStore local, BlobStore localBlobs) throws IOException {
+        BlobStore blobs = new BlobStore(gitletDir);
+        LinkedHashSet<String> wanted = new LinkedHashSet<String>();
+        for (String sha : shas) {
+            for (String hash : local.newBlobs(sha)) {
+                if (!blobs.contains(hash)) {
+                    wanted.add(hash);
+                }
+            }
+        }
+        String oldHead = state.getRefs().get(branch);
+        String path = PushPack.write(gitletDir, branch, (oldHead == null) ? "" : oldHead,
+                head, root, wanted, localBlobs, shas, local);
+        transport.sendPack(path);
+    }
+}
@@ -0,0 +1,200 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Transport to a repository on another machine, reached with scp and ssh.
+ * Files are downloaded into a partial copy of the remote's gitlet directory
+ * under remoteWD, with one scp run per directory they are in; a file
+ * already in the copy, which only lives as long as one command, is not
+ * downloaded again. Ranges of a file, such as some records of a pack, are
+ * read by tail and head in a single ssh run. A push pack, written in the
+ * copy, is streamed to the remote through a single ssh run, renamed into
+ * place there once it has fully arrived, and indexed by running gitlet
+ * receive-pack in the remote's directory, whose exit status is that of the
+ * run. A failed scp or ssh run is an IOException, but for files download
+ * is asked for that the remote does not have.
+ */
+public class ScpTransport implements Transport {
+    private static final String STAGING = "remoteWD/.gitlet";
+    private String login;
+    private String location;
+    private String remoteDir;
+
+    /** Constructs a transport to the repository at location on login, user@server. */
+    public ScpTransport(String login, String location) {
+        this.login = login;
+        this.location = location;
+        this.remoteDir = location + "/.gitlet";
+    }
+
+    @Override
+    public String gitletDir() {
+        return STAGING;
+    }
+
+    @Override
+    public void download(Collection<String> paths) throws IOException {
+        ArrayList<String> missing = new ArrayList<String>();
+        for (String path : paths) {
+            if (!new File(STAGING + "/" + path).exists()) {
+                missing.add(path);
+            }
+        }
+        HashMap<String, ArrayList<String>> byDir = byDirectory(missing);
+        for (String dir : byDir.keySet()) {
+            new File(STAGING + "/" + dir).mkdirs();
+            ArrayList<String> command = new ArrayList<String>();
+            command.add("scp");
+            for (String path : byDir.get(dir)) {
+                command.add(login + ":" + remoteDir + "/" + path);
+            }
+            command.add(STAGING + "/" + dir);
+            run(command, null, null, true);
+        }
+    }
+
+    @Override
+    public void downloadRanges(String path, long[] offsets, long[] lengths)
+            throws IOException {
+        ArrayList<Integer> order = new ArrayList<Integer>();
+        int last = -1;
+        for (int i = 0; i < offsets.length; i++) {
+            if (lengths[i] < 0) {
+                last = i;
+            } else {
+                order.add(i);
+            }
+        }
+        if (last >= 0) {
+            order.add(last);
+        }
+        if (order.isEmpty()) {
+            return;
+        }
+        File target = new File(STAGING + "/" + path);
+        target.getParentFile().mkdirs();
+        File script = new File(target.getPath() + ".ranges");
+        File data = new File(target.getPath() + ".data");
+        try (PrintWriter w = new PrintWriter(script)) {
+            for (int i : order) {
+                w.print("tail -c +" + (offsets[i] + 1) + " " + remoteDir + "/" + path);
+                w.println((lengths[i] < 0) ? "" : " | head -c " + lengths[i]);
+            }
+        }
+        ArrayList<String> command = new ArrayList<String>();
+        command.add("ssh");
+        command.add(login);
+        command.add("sh");
+        run(command, script, data, false);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(data)));
+                FileChannel out = FileChannel.open(target.toPath(), CREATE, WRITE)) {
+            for (int i : order) {
+                byte[] range;
+                if (lengths[i] < 0) {
+                    range = in.readAllBytes();
+                } else {
+                    range = new byte[(int) lengths[i]];
+                    in.readFully(range);
+                }
+                ByteBuffer buf = ByteBuffer.wrap(range);
+                while (buf.hasRemaining()) {
+                    out.write(buf, offsets[i] + buf.position());
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException("Remote " + path + " is shorter than expected.");
+        } finally {
+            script.delete();
+            data.delete();
+        }
+    }
+
+    @Override
+    public void sendPack(String path) throws IOException {
+        String target = remoteDir + "/" + path;
+        ArrayList<String> command = new ArrayList<String>();
+        command.add("ssh");
+        command.add(login);
+        command.add("mkdir -p " + new File(target).getParent() + " && cat > " + target
+                + ".tmp && mv " + target + ".tmp " + target + " && cd " + location
+                + " && java Gitlet receive-pack");
+        run(command, new File(STAGING + "/" + path), null, false);
+    }
+
+    /** Returns paths grouped by the directory they are in, "." for the top. */
+    private static HashMap<String, ArrayList<String>> byDirectory(Collection<String> paths) {
+        HashMap<String, ArrayList<String>> byDir = new HashMap<String, ArrayList<String>>();
+        for (String path : paths) {
+            String dir = new File(path).getParent();
+            if (dir == null) {
+                dir = ".";
+            }
+            if (!byDir.containsKey(dir)) {
+                byDir.put(dir, new ArrayList<String>());
+            }
+            byDir.get(dir).add(path);
+        }
+        return byDir;
+    }
+
+    /**
+     * Runs command with the file input as its standard input, or none if it
+     * is null, and its standard output written to the file output, or
+     * discarded if it is null, and waits for it to finish. Throws an
+     * IOException if it fails, unless missingOk is true and all it reported
+     * is files it was to copy that do not exist.
+     */
+    private static void run(ArrayList<String> command, File input, File output,
+            boolean missingOk) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(command);
+        if (input != null) {
+            builder.redirectInput(input);
+        }
+        if (output != null) {
+            builder.redirectOutput(output);
+        } else {
+            builder.redirectErrorStream(true);
+        }
+        Process p = builder.start();
+        String errors;
+        try (InputStream out = (output != null) ? p.getErrorStream() : p.getInputStream()) {
+            errors = new String(out.readAllBytes(), UTF_8);
+        }
+        int status;
+        try {
+            status = p.waitFor();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while running " + command.get(0));
+        }
+        if (status != 0 && !(missingOk && onlyMissing(errors))) {
+            throw new IOException(command.get(0) + " exited with status " + status + ": "
+                    + errors.trim());
+        }
+    }
+
+    /** Returns true if every line of errors reports a file that does not exist. */
+    private static boolean onlyMissing(String errors) {
+        for (String line : errors.split("\n")) {
+            if (!line.trim().isEmpty() && !line.contains("No such file or directory")) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,414 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Append-only log of the state of a Gitlet repository, kept in
+ * <gitletDir>/state.log. A branch head update, staging change, remote
+ * change or remote-tracking ref update is appended as one small record,
+ * and the state is recovered by replaying the log from the start; commits
+ * themselves live in the CommitStore. THIS mirrors the state as recorded,
+ * so that saving only appends what changed since. Once most records are
+ * superseded, the log is compacted by rewriting just the live ones.
+ */
+public class StateLog {
+    private static final byte ROOT = 1;
+    private static final byte BRANCH = 2;
+    private static final byte RM_BRANCH = 3;
+    private static final byte HEAD = 4;
+    private static final byte STAGE = 5;
+    private static final byte UNSTAGE = 6;
+    private static final byte MARK_RM = 7;
+    private static final byte UNMARK_RM = 8;
+    private static final byte REMOTE = 9;
+    private static final byte RM_REMOTE = 10;
+    private static final byte COUNTER = 11;
+    private static final byte TRACK = 12;
+    private static final byte RM_TRACK = 13;
+    /** Number of superseded records tolerated before compacting. */
+    private static final int COMPACT_SLACK = 256;
+
+    private String path;
+    private ByteArrayOutputStream pending;
+    private int records;
+    private String root;
+    private HashMap<String, String> refs;
+    private String currName;
+    private String headSHA;
+    private HashSet<String> staged;
+    private HashSet<String> marked;
+    private HashMap<String, String> logins;
+    private HashMap<String, String> locs;
+    private HashMap<String, String> tracking;
+    private int counter;
+
+    /** Constructs the log of the gitlet directory gitletDir, e.g. ".gitlet". */
+    public StateLog(String gitletDir) {
+        path = gitletDir + "/state.log";
+        pending = new ByteArrayOutputStream();
+        records = 0;
+        root = "";
+        refs = new HashMap<String, String>();
+        currName = "";
+        headSHA = "";
+        staged = new HashSet<String>();
+        marked = new HashSet<String>();
+        logins = new HashMap<String, String>();
+        locs = new HashMap<String, String>();
+        tracking = new HashMap<String, String>();
+        counter = 0;
+    }
+
+    /** Returns true if the log file exists. */
+    public boolean exists() {
+        return new File(path).exists();
+    }
+
+    /**
+     * Replays the log, mirroring the state it records in THIS. A torn record
+     * at the end, left by an interrupted save, is discarded.
+     */
+    public void load() throws IOException {
+        long good = 0;
+        boolean torn = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(path)))) {
+            while (true) {
+                int length;
+                byte[] payload;
+                try {
+                    length = in.readInt();
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    torn = good != new File(path).length();
+                    break;
+                }
+                apply(payload);
+                good += 4 + length;
+                records += 1;
+            }
+        }
+        if (torn) {
+            try (RandomAccessFile f = new RandomAccessFile(path, "rw")) {
+                f.setLength(good);
+            }
+        }
+    }
+
+    /** Applies the record in payload to the mirrored state. */
+    private void apply(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        switch (type) {
+            case ROOT:
+                root = in.readUTF();
+                break;
+            case BRANCH:
+                refs.put(in.readUTF(), in.readUTF());
+                break;
+            case RM_BRANCH:
+                refs.remove(in.readUTF());
+                break;
+            case HEAD:
+                currName = in.readUTF();
+                headSHA = in.readUTF();
+                break;
+            case STAGE:
+                staged.add(in.readUTF());
+                break;
+            case UNSTAGE:
+                staged.remove(in.readUTF());
+                break;
+            case MARK_RM:
+                marked.add(in.readUTF());
+                break;
+            case UNMARK_RM:
+                marked.remove(in.readUTF());
+                break;
+            case REMOTE:
+                String name = in.readUTF();
+                logins.put(name, in.readUTF());
+                locs.put(name, in.readUTF());
+                break;
+            case RM_REMOTE:
+                String rmName = in.readUTF();
+                logins.remove(rmName);
+                locs.remove(rmName);
+                break;
+            case COUNTER:
+                counter = in.readInt();
+                break;
+            case TRACK:
+                tracking.put(in.readUTF(), in.readUTF());
+                break;
+            case RM_TRACK:
+                tracking.remove(in.readUTF());
+                break;
+            default:
+                throw new IOException("Unknown state log record: " + type);
+        }
+    }
+
+    /** Queues a record of the given type holding the given strings. */
+    private void append(byte type, String... fields) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        for (String field : fields) {
+            out.writeUTF(field);
+        }
+        queue(bytes);
+    }
+
+    /** Queues the record held in bytes, prefixed by its length. */
+    private void queue(ByteArrayOutputStream bytes) throws IOException {
+        DataOutputStream out = new DataOutputStream(pending);
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+        records += 1;
+    }
+
+    /** Queues a record for the SHA of the initial commit, if it changed. */
+    public void syncRoot(String firstSHA) throws IOException {
+        if (!firstSHA.equals(root)) {
+            root = firstSHA;
+            append(ROOT, firstSHA);
+        }
+    }
+
+    /** Queues records for every branch head that changed. */
+    public void syncRefs(HashMap<String, CommitNode> b2h) throws IOException {
+        for (String name : b2h.keySet()) {
+            String sha = b2h.get(name).getSHA();
+            if (!sha.equals(refs.get(name))) {
+                refs.put(name, sha);
+                append(BRANCH, name, sha);
+            }
+        }
+        for (String name : new ArrayList<String>(refs.keySet())) {
+            if (!b2h.containsKey(name)) {
+                refs.remove(name);
+                append(RM_BRANCH, name);
+            }
+        }
+    }
+
+    /**
+     * Queues a record moving branch name to the commit sha, and one moving
+     * the head along if name is the current branch or there is none yet.
+     */
+    public void moveRef(String name, String sha) throws IOException {
+        if (!sha.equals(refs.get(name))) {
+            refs.put(name, sha);
+            append(BRANCH, name, sha);
+        }
+        if (currName.equals("") || (name.equals(currName) && !sha.equals(headSHA))) {
+            currName = name;
+            headSHA = sha;
+            append(HEAD, name, sha);
+        }
+    }
+
+    /** Queues a record for the current branch and head, if they changed. */
+    public void syncHead(String name, CommitNode head) throws IOException {
+        String sha = head == null ? "" : head.getSHA();
+        if (!name.equals(currName) || !sha.equals(headSHA)) {
+            currName = name;
+            headSHA = sha;
+            append(HEAD, name, sha);
+        }
+    }
+
+    /** Queues records for files staged or marked for removal, or no longer. */
+    public void syncStaging(HashSet<String> stagedFiles, HashSet<String> rmFiles)
+            throws IOException {
+        syncSet(staged, stagedFiles, STAGE, UNSTAGE);
+        syncSet(marked, rmFiles, MARK_RM, UNMARK_RM);
+    }
+
+    /** Makes saved equal to current, queuing an add or del record per change. */
+    private void syncSet(HashSet<String> saved, HashSet<String> current, byte add, byte del)
+            throws IOException {
+        for (String s : current) {
+            if (saved.add(s)) {
+                append(add, s);
+            }
+        }
+        for (String s : new ArrayList<String>(saved)) {
+            if (!current.contains(s)) {
+                saved.remove(s);
+                append(del, s);
+            }
+        }
+    }
+
+    /**
+     * Queues records for every remote-tracking ref, by "remote/branch", that
+     * moved, appeared or went away.
+     */
+    public void syncTracking(HashMap<String, String> current) throws IOException {
+        for (String name : current.keySet()) {
+            String sha = current.get(name);
+            if (!sha.equals(tracking.get(name))) {
+                tracking.put(name, sha);
+                append(TRACK, name, sha);
+            }
+        }
+        for (String name : new ArrayList<String>(tracking.keySet())) {
+            if (!current.containsKey(name)) {
+                tracking.remove(name);
+                append(RM_TRACK, name);
+            }
+        }
+    }
+
+    /** Queues records for every remote added, changed or removed. */
+    public void syncRemotes(HashMap<String, String> r2login, HashMap<String, String> r2loc)
+            throws IOException {
+        for (String name : r2login.keySet()) {
+            String login = r2login.get(name), loc = r2loc.get(name);
+            if (!login.equals(logins.get(name)) || !loc.equals(locs.get(name))) {
+                logins.put(name, login);
+                locs.put(name, loc);
+                append(REMOTE, name, login, loc);
+            }
+        }
+        for (String name : new ArrayList<String>(logins.keySet())) {
+            if (!r2login.containsKey(name)) {
+                logins.remove(name);
+                locs.remove(name);
+                append(RM_REMOTE, name);
+            }
+        }
+    }
+
+    /** Queues a record for the commit counter, if it changed. */
+    public void syncCounter(int commitID) throws IOException {
+        if (commitID != counter) {
+            counter = commitID;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(COUNTER);
+            out.writeInt(commitID);
+            queue(bytes);
+        }
+    }
+
+    /** Appends all queued records to the log file. Writes nothing if none. */
+    public void flush() throws IOException {
+        if (pending.size() == 0) {
+            return;
+        }
+        try (FileOutputStream out = new FileOutputStream(path, true)) {
+            pending.writeTo(out);
+        }
+        pending.reset();
+    }
+
+    /** Returns the number of records needed to describe the current state. */
+    private int liveRecords() {
+        return refs.size() + staged.size() + marked.size() + logins.size() + tracking.size()
+                + 3;
+    }
+
+    /**
+     * If the log holds many more records than the live state needs, rewrites
+     * it with just the live ones.
+     */
+    public void compact() throws IOException {
+        if (records <= 2 * liveRecords() + COMPACT_SLACK) {
+            return;
+        }
+        StateLog fresh = new StateLog(new File(path).getParent());
+        fresh.path = path + ".tmp";
+        fresh.append(ROOT, root);
+        for (String name : refs.keySet()) {
+            fresh.append(BRANCH, name, refs.get(name));
+        }
+        fresh.append(HEAD, currName, headSHA);
+        for (String s : staged) {
+            fresh.append(STAGE, s);
+        }
+        for (String s : marked) {
+            fresh.append(MARK_RM, s);
+        }
+        for (String name : logins.keySet()) {
+            fresh.append(REMOTE, name, logins.get(name), locs.get(name));
+        }
+        for (String name : tracking.keySet()) {
+            fresh.append(TRACK, name, tracking.get(name));
+        }
+        fresh.syncCounter(counter);
+        Files.deleteIfExists(Paths.get(fresh.path));
+        fresh.flush();
+        Files.move(Paths.get(fresh.path), Paths.get(path), REPLACE_EXISTING, ATOMIC_MOVE);
+        records = fresh.records;
+    }
+
+    /** Returns the logged SHA of the initial commit. */
+    public String getRoot() {
+        return root;
+    }
+
+    /** Returns the logged branch heads, by branch name. */
+    public HashMap<String, String> getRefs() {
+        return refs;
+    }
+
+    /** Returns the logged name of the current branch. */
+    public String getCurrName() {
+        return currName;
+    }
+
+    /** Returns the logged SHA of the head commit. */
+    public String getHeadSHA() {
+        return headSHA;
+    }
+
+    /** Returns the logged set of staged files. */
+    public HashSet<String> getStaged() {
+        return staged;
+    }
+
+    /** Returns the logged set of files marked for removal. */
+    public HashSet<String> getMarked() {
+        return marked;
+    }
+
+    /** Returns the logged remote logins, by remote name. */
+    public HashMap<String, String> getLogins() {
+        return logins;
+    }
+
+    /** Returns the logged remote locations, by remote name. */
+    public HashMap<String, String> getLocs() {
+        return locs;
+    }
+
+    /** Returns the logged remote-tracking refs, by "remote/branch". */
+    public HashMap<String, String> getTracking() {
+        return tracking;
+    }
+
+    /** Returns the logged value of the commit counter. */
+    public int getCounter() {
+        return counter;
+    }
+}
@@ -0,0 +1,125 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * JUnit tests for StateLog: that the state it records is replayed as it
+ * was, after compaction too, and that a torn last record is dropped.
+ */
+public class StateLogTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private String gitletDir;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        gitletDir = folder.newFolder(".gitlet").getPath();
+        file = new File(gitletDir, "state.log");
+    }
+
+    /** Returns the state recorded in the log, replayed by a new StateLog. */
+    private StateLog reload() throws IOException {
+        StateLog log = new StateLog(gitletDir);
+        log.load();
+        return log;
+    }
+
+    /** Returns the SHA made of the number i. */
+    private static String sha(int i) {
+        return String.format("%064x", i);
+    }
+
+    /** Asserts that the two logs record the same state. */
+    private static void assertSameState(StateLog expected, StateLog actual) {
+        assertEquals(expected.getRoot(), actual.getRoot());
+        assertEquals(expected.getRefs(), actual.getRefs());
+        assertEquals(expected.getCurrName(), actual.getCurrName());
+        assertEquals(expected.getHeadSHA(), actual.getHeadSHA());
+        assertEquals(expected.getStaged(), actual.getStaged());
+        assertEquals(expected.getMarked(), actual.getMarked());
+        assertEquals(expected.getLogins(), actual.getLogins());
+        assertEquals(expected.getLocs(), actual.getLocs());
+        assertEquals(expected.getTracking(), actual.getTracking());
+        assertEquals(expected.getCounter(), actual.getCounter());
+    }
+
+    /**
+     * Tests that a log of many superseded records is compacted to a much
+     * smaller one recording the same state, which later records extend.
+     */
+    @Test
+    public void testCompactionKeepsState() throws IOException {
+        StateLog log = new StateLog(gitletDir);
+        log.syncRoot(sha(0));
+        HashMap<String, String> logins = new HashMap<String, String>();
+        HashMap<String, String> locs = new HashMap<String, String>();
+        HashMap<String, String> tracking = new HashMap<String, String>();
+        for (int i = 1; i <= 600; i++) {
+            log.moveRef("master", sha(i));
+            log.moveRef("b" + (i % 5), sha(i));
+            log.syncStaging(new HashSet<String>(Arrays.asList("f" + i, "g")),
+                    new HashSet<String>(Arrays.asList("r" + (i % 3))));
+            tracking.put("origin/master", sha(i));
+            tracking.put("origin/b" + i, sha(i));
+            tracking.remove("origin/b" + (i - 1));
+            log.syncTracking(tracking);
+            log.syncCounter(i);
+        }
+        logins.put("origin", "");
+        locs.put("origin", "file:///remote");
+        log.syncRemotes(logins, locs);
+        log.flush();
+        StateLog before = reload();
+        long length = file.length();
+
+        before.compact();
+        assertTrue(file.length() < length / 20);
+        StateLog after = reload();
+        assertSameState(before, after);
+        assertEquals(sha(600), after.getHeadSHA());
+        assertEquals("master", after.getCurrName());
+        assertEquals(new HashSet<String>(Arrays.asList("f600", "g")), after.getStaged());
+        assertEquals(2, after.getTracking().size());
+
+        after.moveRef("master", sha(601));
+        after.flush();
+        assertEquals(sha(601), reload().getHeadSHA());
+    }
+
+    /**
+     * Tests that a record cut short by an interrupted save is dropped, and
+     * cut off the file so records appended later are read.
+     */
+    @Test
+    public void testTornRecordDropped() throws IOException {
+        StateLog log = new StateLog(gitletDir);
+        log.syncRoot(sha(0));
+        log.moveRef("master", sha(1));
+        log.flush();
+        long length = file.length();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true))) {
+            out.writeInt(100);
+            out.write(new byte[] {2, 0, 6});
+        }
+
+        StateLog recovered = reload();
+        assertEquals(length, file.length());
+        assertSameState(log, recovered);
+        recovered.moveRef("master", sha(2));
+        recovered.flush();
+        assertEquals(sha(2), reload().getRefs().get("master"));
+    }
+}
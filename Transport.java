@@ -0,0 +1,34 @@
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Access to the gitlet directory of a remote repository. The remote's files
+ * are read from a local directory, gitletDir: the remote's own, or a
+ * partial copy of it that download fills with just the files asked for.
+ * Nothing is written to the remote but push packs.
+ */
+public interface Transport {
+    /** Returns the local directory the remote's gitlet files are read from. */
+    String gitletDir();
+
+    /**
+     * Makes the files at paths, relative to the gitlet directory, readable in
+     * gitletDir. Files the remote does not have are skipped.
+     */
+    void download(Collection<String> paths) throws IOException;
+
+    /**
+     * Makes the byte ranges of the file at path that start at offsets and
+     * are lengths long readable at the same offsets of that file in
+     * gitletDir. A length of -1 runs to the end of the file, and may only be
+     * given once. The rest of the file may be left unread.
+     */
+    void downloadRanges(String path, long[] offsets, long[] lengths) throws IOException;
+
+    /**
+     * Delivers the push pack written in gitletDir at path to the remote in
+     * a single transfer, and has the remote index it. Throws an IOException
+     * if the remote rejects it.
+     */
+    void sendPack(String path) throws IOException;
+}
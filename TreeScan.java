@@ -0,0 +1,175 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Scan of the working directory against the files of a commit and the
+ * staging area. Directories are walked in parallel by a fork/join pool, one
+ * task per directory. A tracked file is only read, to hash it, if the file
+ * index cannot vouch for it from the metadata the walk already read; the
+ * hashes found are recorded in the index once the walk is over.
+ */
+public class TreeScan {
+    private String gitletDir;
+    private PathMap tracked;
+    private Set<String> staged;
+    private Set<String> removed;
+    private FileIndex index;
+    private ConcurrentLinkedQueue<String> present = new ConcurrentLinkedQueue<String>();
+    private ConcurrentLinkedQueue<String> modified = new ConcurrentLinkedQueue<String>();
+    private ConcurrentLinkedQueue<String> untracked = new ConcurrentLinkedQueue<String>();
+    private ConcurrentLinkedQueue<IOException> errors = new ConcurrentLinkedQueue<IOException>();
+    private ConcurrentHashMap<String, BasicFileAttributes> hashedAttributes =
+            new ConcurrentHashMap<String, BasicFileAttributes>();
+    private ConcurrentHashMap<String, String> hashes = new ConcurrentHashMap<String, String>();
+
+    /** Task that scans the directory dir, named name ("" for the root). */
+    private class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private Path dir;
+        private String name;
+
+        DirectoryTask(Path dir, String name) {
+            this.dir = dir;
+            this.name = name;
+        }
+
+        @Override
+        protected void compute() {
+            ArrayList<DirectoryTask> subtasks = new ArrayList<DirectoryTask>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path p : entries) {
+                    String filename = name.equals("") ? p.getFileName().toString()
+                            : name + "/" + p.getFileName();
+                    BasicFileAttributes a = Files.readAttributes(p, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    if (a.isSymbolicLink()) {
+                        a = Files.readAttributes(p, BasicFileAttributes.class);
+                        if (a.isDirectory()) {
+                            continue;
+                        }
+                    }
+                    if (a.isDirectory()) {
+                        if (!filename.equals(gitletDir)) {
+                            subtasks.add(new DirectoryTask(p, filename));
+                        }
+                    } else if (a.isRegularFile()) {
+                        scanFile(p, filename, a);
+                    }
+                }
+            } catch (IOException e) {
+                errors.add(e);
+            }
+            invokeAll(subtasks);
+        }
+    }
+
+    /**
+     * Constructs a scan of the working directory against the files tracked,
+     * with staged the files staged and removed those marked for removal.
+     * gitletDir is the gitlet directory, which is not scanned, and index the
+     * file index to consult and record hashes in.
+     */
+    public TreeScan(String gitletDir, PathMap tracked, Set<String> staged,
+            Set<String> removed, FileIndex index) {
+        this.gitletDir = gitletDir;
+        this.tracked = tracked;
+        this.staged = staged;
+        this.removed = removed;
+        this.index = index;
+    }
+
+    /** Classifies the working file filename at p, whose metadata is a. */
+    private void scanFile(Path p, String filename, BasicFileAttributes a) throws IOException {
+        present.add(filename);
+        String blob = tracked.get(filename);
+        if (blob == null || removed.contains(filename)) {
+            if (!staged.contains(filename)) {
+                untracked.add(filename);
+            }
+            return;
+        }
+        if (staged.contains(filename)) {
+            return;
+        }
+        String hash = index.lookup(filename, a);
+        if (hash == null) {
+            hash = BlobStore.hash(p);
+            hashedAttributes.put(filename, a);
+            hashes.put(filename, hash);
+        }
+        if (!hash.equals(blob)) {
+            modified.add(filename);
+        }
+    }
+
+    /**
+     * Walks the working directory with the given number of threads, then
+     * records the hashes it computed in the file index.
+     */
+    public void run(int threads) throws IOException {
+        index.load();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new DirectoryTask(Paths.get("."), ""));
+        } finally {
+            pool.shutdown();
+        }
+        if (!errors.isEmpty()) {
+            throw errors.peek();
+        }
+        for (String filename : hashes.keySet()) {
+            index.record(filename, hashedAttributes.get(filename), hashes.get(filename));
+        }
+    }
+
+    /** Returns the sorted tracked files that differ from their committed versions. */
+    public ArrayList<String> modified() {
+        return sorted(modified);
+    }
+
+    /**
+     * Returns the sorted files that are tracked and not marked for removal,
+     * or staged, but missing from the working directory.
+     */
+    public ArrayList<String> deleted() {
+        HashSet<String> seen = new HashSet<String>(present);
+        HashSet<String> deleted = new HashSet<String>();
+        for (String filename : tracked.keySet()) {
+            if (!seen.contains(filename) && !removed.contains(filename)) {
+                deleted.add(filename);
+            }
+        }
+        for (String filename : staged) {
+            if (!seen.contains(filename)) {
+                deleted.add(filename);
+            }
+        }
+        return sorted(deleted);
+    }
+
+    /** Returns the sorted files that are neither tracked nor staged. */
+    public ArrayList<String> untracked() {
+        return sorted(untracked);
+    }
+
+    /** Returns the strings in c, sorted. */
+    private static ArrayList<String> sorted(Collection<String> c) {
+        ArrayList<String> result = new ArrayList<String>(c);
+        Collections.sort(result);
+        return result;
+    }
+}
@@ -0,0 +1,117 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times the commands that leave a repository of n commits and n files much
+ * as they found it, each run as from the command line, so including reading
+ * and saving the state. add and commit each change one file first.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class CommandBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int n;
+    private int version;
+
+    /** A change to the last file, staged before every commit. */
+    @State(Scope.Benchmark)
+    public static class Staged {
+        /** Changes and stages the last file of repo. */
+        @Setup(Level.Invocation)
+        public void stage(CommandBenchmark repo) throws IOException {
+            repo.change();
+            GitletFixture.gitlet("add", GitletFixture.fileName(repo.n - 1));
+        }
+    }
+
+    /**
+     * Makes the repository of size n, with a branch other at its head and
+     * one more commit on master, changing the first file.
+     */
+    @Setup(Level.Trial)
+    public void repository() throws IOException {
+        GitletFixture.repository(n);
+        GitletFixture.gitlet("branch", "other");
+        GitletFixture.write(GitletFixture.fileName(0), "on master");
+        GitletFixture.gitlet("add", GitletFixture.fileName(0));
+        GitletFixture.gitlet("commit", "master change");
+    }
+
+    /** Writes a new version of the last file. */
+    private void change() throws IOException {
+        version += 1;
+        GitletFixture.write(GitletFixture.fileName(n - 1), "version " + version);
+    }
+
+    @Benchmark
+    public void add() throws IOException {
+        change();
+        GitletFixture.gitlet("add", GitletFixture.fileName(n - 1));
+    }
+
+    @Benchmark
+    public void commit(Staged staged) {
+        GitletFixture.gitlet("commit", "version " + version);
+    }
+
+    @Benchmark
+    public void status() {
+        GitletFixture.gitlet("status");
+    }
+
+    @Benchmark
+    public void log() {
+        GitletFixture.gitlet("log");
+    }
+
+    @Benchmark
+    public void logPage() {
+        GitletFixture.gitlet("log", "-n", "20");
+    }
+
+    @Benchmark
+    public void globalLog() {
+        GitletFixture.gitlet("global-log");
+    }
+
+    @Benchmark
+    public void find() {
+        GitletFixture.gitlet("find", "commit " + (n / 2));
+    }
+
+    @Benchmark
+    public void findSubstring() {
+        GitletFixture.gitlet("find", "--substring", "commit " + (n / 2));
+    }
+
+    @Benchmark
+    public void checkoutFile() {
+        GitletFixture.gitlet("checkout", GitletFixture.fileName(0));
+    }
+
+    /** Checks out other, then master again. */
+    @Benchmark
+    public void checkoutBranch() {
+        GitletFixture.gitlet("checkout", "other");
+        GitletFixture.gitlet("checkout", "master");
+    }
+}
@@ -0,0 +1,84 @@
+package bench;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times switching between two branches of FILES text files, every file
+ * differing between them, at each level of the compression setting, so
+ * that every checkout rewrites every file. The space blobs take relative
+ * to the files they hold is printed once they are built.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class CompressionBenchmark {
+    private static final int FILES = 200;
+    private static final int FILE_LINES = 2000;
+    private static final String[] WORDS = {"commit", "branch", "merge", "file", "the",
+        "of", "gitlet", "value", "head", "= true;", "return", "{", "}", "0x1f", "null"};
+    @Param({"0", "1", "6", "9"})
+    public int level;
+
+    @Setup(Level.Trial)
+    public void repository() throws IOException {
+        GitletFixture.clean();
+        GitletFixture.gitlet("init");
+        try (FileWriter w = new FileWriter(".gitlet/config")) {
+            w.write("compression=" + level + "\npack.depth=0\n");
+        }
+        Random random = new Random(level);
+        long raw = 0;
+        for (int version = 0; version < 2; version++) {
+            if (version == 1) {
+                GitletFixture.gitlet("branch", "other");
+                GitletFixture.gitlet("checkout", "other");
+            }
+            for (int i = 0; i < FILES; i++) {
+                StringBuilder text = new StringBuilder();
+                for (int line = 0; line < FILE_LINES; line++) {
+                    for (int word = 0; word < 8; word++) {
+                        text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+                    }
+                    text.append(random.nextInt()).append('\n');
+                }
+                GitletFixture.write(GitletFixture.fileName(i), text.toString());
+                raw += text.length() + 1;
+                GitletFixture.gitlet("add", GitletFixture.fileName(i));
+            }
+            GitletFixture.gitlet("commit", "version " + version);
+        }
+        long stored = 0;
+        for (File blob : new File(".gitlet/blobs").listFiles()) {
+            stored += blob.length();
+        }
+        System.out.printf("compression=%d: blobs take %.3f of the file size%n", level,
+                stored / (double) raw);
+    }
+
+    /** Checks out master, then other again. */
+    @Benchmark
+    public void checkout() {
+        GitletFixture.gitlet("checkout", "master");
+        GitletFixture.gitlet("checkout", "other");
+    }
+}
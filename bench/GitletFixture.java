@@ -0,0 +1,212 @@
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardCopyOption.COPY_ATTRIBUTES;
+
+/**
+ * What the benchmarks share: running Gitlet in-process, and the synthetic
+ * repositories they run it on. Gitlet works on the current directory, which
+ * for the benchmarks is a scratch directory, and sits in the default
+ * package, which a named package cannot import, so it is reached through
+ * method handles.
+ *
+ * The repository of size n has n commits, each adding one new file, so n
+ * files, with messages "commit 0" to "commit n-1". Building one takes long
+ * for large n, so the first build of each size is kept in FIXTURES, beside
+ * the scratch directory, and later trials copy it back.
+ */
+public final class GitletFixture {
+    private static final String FIXTURES = "../bench-fixtures";
+    private static final int FILES_PER_DIR = 1000;
+    private static final MethodHandle MAIN;
+    private static final MethodHandle READ_SAVED;
+    private static final MethodHandle SAVE;
+    private static final MethodHandle BRANCH;
+    private static final MethodHandle REMOVE_BRANCH;
+    private static final PrintStream SINK = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    });
+
+    static {
+        try {
+            Class<?> gitlet = Class.forName("Gitlet");
+            MAIN = handle(gitlet, "main", String[].class);
+            READ_SAVED = handle(gitlet, "readSaved", String.class);
+            SAVE = handle(gitlet, "save", gitlet, String.class);
+            BRANCH = handle(gitlet, "branch", String.class);
+            REMOVE_BRANCH = handle(gitlet, "removeBranch", String.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private GitletFixture() {
+    }
+
+    /** Returns a handle on the method name of c, private or not. */
+    private static MethodHandle handle(Class<?> c, String name, Class<?>... types)
+            throws ReflectiveOperationException {
+        Method m = c.getDeclaredMethod(name, types);
+        m.setAccessible(true);
+        return MethodHandles.lookup().unreflect(m);
+    }
+
+    /**
+     * Runs a Gitlet command as from the command line, answering yes if it
+     * asks for confirmation, and discarding what it prints.
+     */
+    public static void gitlet(String... args) {
+        InputStream in = System.in;
+        PrintStream out = System.out;
+        System.setIn(new ByteArrayInputStream("yes\n".getBytes()));
+        System.setOut(SINK);
+        try {
+            MAIN.invoke((Object) args);
+        } catch (Throwable t) {
+            throw new IllegalStateException("gitlet " + String.join(" ", args), t);
+        } finally {
+            System.setOut(out);
+            System.setIn(in);
+        }
+    }
+
+    /** Returns the state of the repository here, read as a command reads it. */
+    public static Object readSaved() {
+        try {
+            return READ_SAVED.invoke(".gitlet");
+        } catch (Throwable t) {
+            throw new IllegalStateException("readSaved", t);
+        }
+    }
+
+    /** Saves state, as read by readSaved, as a command saves it. */
+    public static void save(Object state) {
+        try {
+            SAVE.invoke(state, ".gitlet");
+        } catch (Throwable t) {
+            throw new IllegalStateException("save", t);
+        }
+    }
+
+    /** Creates the branch name in state, or removes it if remove is true. */
+    public static void branch(Object state, String name, boolean remove) {
+        try {
+            if (remove) {
+                REMOVE_BRANCH.invoke(state, name);
+            } else {
+                BRANCH.invoke(state, name);
+            }
+        } catch (Throwable t) {
+            throw new IllegalStateException("branch", t);
+        }
+    }
+
+    /**
+     * Makes the current directory the repository of size n, building it the
+     * first time, and copying the kept one afterwards.
+     */
+    public static void repository(int n) throws IOException {
+        clean();
+        Path kept = Paths.get(FIXTURES, "n" + n);
+        if (Files.isDirectory(kept)) {
+            copyTree(kept, Paths.get("."));
+            return;
+        }
+        File script = File.createTempFile("build", ".batch");
+        try (FileWriter w = new FileWriter(script)) {
+            w.write("init\n");
+            for (int i = 0; i < n; i++) {
+                write(fileName(i), "file " + i);
+                w.write("add " + fileName(i) + "\n");
+                w.write("commit \"commit " + i + "\"\n");
+            }
+        }
+        gitlet("batch", script.getPath());
+        script.delete();
+        Path tmp = Paths.get(FIXTURES, "n" + n + ".tmp");
+        delete(tmp.toFile());
+        copyTree(Paths.get("."), tmp);
+        Files.move(tmp, kept);
+    }
+
+    /** Returns the name of the i-th synthetic file. */
+    public static String fileName(int i) {
+        return "b" + (i / FILES_PER_DIR) + "/f" + i + ".txt";
+    }
+
+    /** Writes contents and a newline to the file filename, creating its directory. */
+    public static void write(String filename, String contents) throws IOException {
+        File f = new File(filename);
+        f.getParentFile().mkdirs();
+        try (FileWriter w = new FileWriter(f)) {
+            w.write(contents + "\n");
+        }
+    }
+
+    /** Deletes the repository and synthetic files here. */
+    public static void clean() {
+        for (File f : new File(".").listFiles()) {
+            if (isFixture(f.getName())) {
+                delete(f);
+            }
+        }
+    }
+
+    /** Returns true if the top-level file name belongs to a repository. */
+    private static boolean isFixture(String name) {
+        return name.equals(".gitlet") || name.matches("b[0-9]+");
+    }
+
+    /** Copies the repository and synthetic files in from into to. */
+    private static void copyTree(Path from, Path to) throws IOException {
+        try (Stream<Path> paths = Files.walk(from)) {
+            Iterator<Path> it = paths.iterator();
+            while (it.hasNext()) {
+                Path p = it.next();
+                Path rel = from.relativize(p);
+                String top = rel.getName(0).toString();
+                if (!top.isEmpty() && !isFixture(top)) {
+                    continue;
+                }
+                Path target = to.resolve(rel.toString());
+                if (Files.isDirectory(p)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(p, target, COPY_ATTRIBUTES);
+                }
+            }
+        }
+    }
+
+    /** Deletes f, and everything in it if it is a directory. */
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) {
+                delete(c);
+            }
+        }
+        f.delete();
+    }
+}
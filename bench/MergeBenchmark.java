@@ -0,0 +1,80 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times merge and rebase in a repository of n commits and n files. Both
+ * change the repository, so each is run once per iteration, on a branch
+ * that, like master, gained one commit since it was made.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class MergeBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int n;
+    private int round;
+
+    @Setup(Level.Trial)
+    public void repository() throws IOException {
+        GitletFixture.repository(n);
+    }
+
+    /**
+     * Branches off master as side, then commits a change to one file on
+     * side and to another on master, leaving side checked out.
+     */
+    @Setup(Level.Iteration)
+    public void diverge() throws IOException {
+        round += 1;
+        String side = "side" + round;
+        GitletFixture.gitlet("branch", side);
+        commit(0, "master " + round);
+        GitletFixture.gitlet("checkout", side);
+        commit(1, side);
+    }
+
+    /** Commits a change to the i-th file. */
+    private void commit(int i, String msg) throws IOException {
+        GitletFixture.write(GitletFixture.fileName(i), msg);
+        GitletFixture.gitlet("add", GitletFixture.fileName(i));
+        GitletFixture.gitlet("commit", msg);
+    }
+
+    /** Commits what a merge left and goes back to master. */
+    @TearDown(Level.Iteration)
+    public void settle() {
+        GitletFixture.gitlet("commit", "merged " + round);
+        GitletFixture.gitlet("checkout", "master");
+    }
+
+    /** Merges master into side. */
+    @Benchmark
+    public void merge() {
+        GitletFixture.gitlet("merge", "master");
+    }
+
+    /** Replays the commit of side onto master. */
+    @Benchmark
+    public void rebase() {
+        GitletFixture.gitlet("rebase", "master");
+    }
+}
@@ -0,0 +1,55 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times what every command pays before and after its work in a repository
+ * of n commits and n files: reading the saved state, and saving it after a
+ * change. The change is creating or removing one branch, so each save
+ * appends one record to the state log, and compacts it as often as a
+ * command would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class StateBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int n;
+    private Object state;
+    private boolean branched;
+
+    @Setup(Level.Trial)
+    public void repository() throws IOException {
+        GitletFixture.repository(n);
+        state = GitletFixture.readSaved();
+    }
+
+    @Benchmark
+    public Object load() {
+        return GitletFixture.readSaved();
+    }
+
+    @Benchmark
+    public void save() {
+        GitletFixture.branch(state, "bench", branched);
+        branched = !branched;
+        GitletFixture.save(state);
+    }
+}
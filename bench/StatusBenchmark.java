@@ -0,0 +1,73 @@
+package bench;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times status in a repository of n files, one in every CHANGE_RATE of
+ * which is changed, deleted or added, with each number of threads: with a
+ * warm file index, and with none, when every file is hashed.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class StatusBenchmark {
+    private static final int CHANGE_RATE = 100;
+    @Param({"1000", "10000", "100000"})
+    public int n;
+    @Param({"1", "2", "4", "8", "16"})
+    public int threads;
+
+    /** No file index, as before the first status. */
+    @State(Scope.Benchmark)
+    public static class Cold {
+        @Setup(Level.Iteration)
+        public void dropIndex() {
+            new File(".gitlet/index").delete();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void repository() throws IOException {
+        GitletFixture.repository(n);
+        for (int i = 0; i < n; i += CHANGE_RATE) {
+            GitletFixture.write(GitletFixture.fileName(i), "changed " + i);
+            new File(GitletFixture.fileName(i + 1)).delete();
+            GitletFixture.write(GitletFixture.fileName(i) + ".new", "new " + i);
+        }
+        try (FileWriter w = new FileWriter(".gitlet/config")) {
+            w.write("status.threads=" + threads + "\n");
+        }
+        GitletFixture.gitlet("status");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public void warm() {
+        GitletFixture.gitlet("status");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Measurement(iterations = 10)
+    public void cold(Cold index) {
+        GitletFixture.gitlet("status");
+    }
+}